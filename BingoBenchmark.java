@@ -0,0 +1,1460 @@
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.GridLayout;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+
+/**
+ * Plain-Java benchmarks for the server's hot paths, run one case at a time:
+ *
+ *   java BingoBenchmark rooms [rooms] [playersPerRoom] [drawIntervalMs, 0 = turbo]
+ *   java BingoBenchmark claims [cards] [drawnNumbers]
+ *   java BingoBenchmark index [cardCounts, e.g. 1000,100000,1000000]
+ *   java BingoBenchmark patterns [cards]
+ *   java BingoBenchmark footprint [cards]
+ *   java BingoBenchmark generate [cards]
+ *   java BingoBenchmark protocol [recipients]
+ *   java BingoBenchmark metrics [recipients]
+ *   java BingoBenchmark journal [events]
+ *   java BingoBenchmark sheet [cards]
+ *   java BingoBenchmark autodaub [cardsPerGame] [cardsPerPlayer]
+ *   java BingoBenchmark ready [players] [threads] [rounds] [all | min:N:SECONDS]
+ *   java BingoBenchmark claimflood [players] [threads] [claimWindowMs] [rounds] [gateway]
+ *   java BingoBenchmark shards [maxShards] [players] [drawIntervalMs]
+ *   java BingoBenchmark churn [connectionsPerSecond] [seconds] [blocking|nio]
+ */
+public class BingoBenchmark {
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "rooms";
+        switch (name) {
+            case "rooms":
+                rooms(intArg(args, 1, 2000), intArg(args, 2, 10), intArg(args, 3, 20));
+                break;
+            case "claims":
+                claims(intArg(args, 1, 10_000), intArg(args, 2, 30));
+                break;
+            case "index":
+                for (String count : (args.length > 1 ? args[1] : "1000,100000,1000000").split(",")) {
+                    index(Integer.parseInt(count.trim()));
+                }
+                break;
+            case "patterns":
+                patterns(intArg(args, 1, 100_000));
+                break;
+            case "footprint":
+                footprint(intArg(args, 1, 1_000_000));
+                break;
+            case "generate":
+                generate(intArg(args, 1, 1_000_000));
+                break;
+            case "protocol":
+                protocol(intArg(args, 1, 10_000));
+                break;
+            case "metrics":
+                metrics(intArg(args, 1, 1_000));
+                break;
+            case "journal":
+                journal(intArg(args, 1, 2_000_000));
+                break;
+            case "sheet":
+                sheet(intArg(args, 1, 36));
+                break;
+            case "autodaub":
+                autoDaub(intArg(args, 1, 100_000), intArg(args, 2, 24));
+                break;
+            case "ready":
+                readyStorm(intArg(args, 1, 5_000), intArg(args, 2, 8), intArg(args, 3, 20),
+                        StartPolicy.parse(args.length > 4 ? args[4] : "all"));
+                break;
+            case "claimflood":
+                claimFlood(intArg(args, 1, 10_000), intArg(args, 2, 8), intArg(args, 3, 0), intArg(args, 4, 6),
+                        args.length > 5 && args[5].equals("gateway"));
+                break;
+            case "shards":
+                shards(intArg(args, 1, 4), intArg(args, 2, 2000), intArg(args, 3, 100));
+                break;
+            case "churn":
+                churn(intArg(args, 1, 2000), intArg(args, 2, 10), args.length > 3 ? args[3] : "blocking");
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + name);
+        }
+    }
+
+    /**
+     * Runs many complete games side by side on the shared scheduler (nobody
+     * claims, so every room draws all 75 numbers) and reports the CPU time
+     * spent per draw and the threads needed to drive them.
+     */
+    static void rooms(int roomCount, int playersPerRoom, int intervalMs) throws InterruptedException {
+        PrintStream console = silenceStdout();
+        List<BingoRoom> rooms = new ArrayList<>();
+        List<SinkPlayer> players = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            BingoRoom room = new BingoRoom(r + 1, BingoServer.scheduler, intervalMs, r);
+            for (int p = 0; p < playersPerRoom; p++) {
+                SinkPlayer player = new SinkPlayer("r" + r + "p" + p);
+                player.room = room;
+                room.join(player);
+                players.add(player);
+            }
+            rooms.add(room);
+        }
+
+        long cpuStart = processCpuNanos();
+        long wallStart = System.nanoTime();
+        // Readiness goes through the normal path, which starts each game
+        for (SinkPlayer player : players) {
+            player.room.playerReady(player);
+        }
+        for (BingoRoom room : rooms) {
+            while (!room.isFinished()) Thread.sleep(10);
+        }
+        long wallNanos = System.nanoTime() - wallStart;
+        long cpuNanos = processCpuNanos() - cpuStart;
+
+        long draws = 75L * roomCount;
+        double avgDrift = 0, maxDrift = 0;
+        for (BingoRoom room : rooms) {
+            avgDrift += room.averageDriftMillis() / roomCount;
+            maxDrift = Math.max(maxDrift, room.maxDriftMillis());
+        }
+        console.printf("rooms=%d playersPerRoom=%d intervalMs=%d%n", roomCount, playersPerRoom, intervalMs);
+        console.printf("wall=%.2fs draws=%d threads=%d linesQueued=%d games/min=%.0f%n",
+                wallNanos / 1e9, draws, ManagementFactory.getThreadMXBean().getThreadCount(), SinkPlayer.lines.sum(),
+                roomCount / (wallNanos / 6e10));
+        console.printf("cpu/draw=%.1fus cpu/room=%.1fus drift avg=%.2fms max=%.2fms%n",
+                cpuNanos / 1e3 / draws, cpuNanos / 1e3 / roomCount, avgDrift, maxDrift);
+    }
+
+    /**
+     * Cost of validating a BINGO claim: the mask check in BingoCard versus
+     * the nested-loop scan of marked[][] it replaced, plus bytes allocated.
+     */
+    static void claims(int cardCount, int drawn) {
+        Random random = new Random(42);
+        BingoCard[] cards = new BingoCard[cardCount];
+        for (int c = 0; c < cardCount; c++) {
+            cards[c] = new BingoCard();
+            for (int d = 0; d < drawn; d++) cards[c].markNumber(random.nextInt(75) + 1);
+        }
+
+        int rounds = Math.max(1, 20_000_000 / cardCount);
+        for (int warmup = 0; warmup < 3; warmup++) {
+            checkMasks(cards, rounds / 4);
+            checkLoops(cards, rounds / 4);
+        }
+
+        long allocStart = allocatedBytes();
+        long start = System.nanoTime();
+        int wins = checkMasks(cards, rounds);
+        long maskNanos = System.nanoTime() - start;
+        long maskAlloc = allocatedBytes() - allocStart;
+
+        start = System.nanoTime();
+        checkLoops(cards, rounds);
+        long loopNanos = System.nanoTime() - start;
+
+        long checks = (long) rounds * cardCount;
+        System.out.printf("cards=%d drawn=%d checks=%d winners=%d%n", cardCount, drawn, checks, wins / rounds);
+        System.out.printf("mask check: %.2f ns/claim, %d bytes allocated%n", (double) maskNanos / checks, maskAlloc);
+        System.out.printf("loop check: %.2f ns/claim%n", (double) loopNanos / checks);
+    }
+
+    private static int checkMasks(BingoCard[] cards, int rounds) {
+        int wins = 0;
+        for (int r = 0; r < rounds; r++)
+            for (BingoCard card : cards)
+                if (card.checkBingo()) wins++;
+        return wins;
+    }
+
+    private static int checkLoops(BingoCard[] cards, int rounds) {
+        int wins = 0;
+        for (int r = 0; r < rounds; r++)
+            for (BingoCard card : cards)
+                if (loopCheck(card.getMarkedStatus())) wins++;
+        return wins;
+    }
+
+    /** The row/column/diagonal scan BingoCard.checkBingo() used before bitmasks. */
+    private static boolean loopCheck(boolean[][] marked) {
+        for (int i = 0; i < 5; i++) {
+            boolean row = true, col = true;
+            for (int j = 0; j < 5; j++) {
+                row &= marked[i][j];
+                col &= marked[j][i];
+            }
+            if (row || col) return true;
+        }
+        boolean diag1 = true, diag2 = true;
+        for (int i = 0; i < 5; i++) {
+            diag1 &= marked[i][i];
+            diag2 &= marked[i][4 - i];
+        }
+        return diag1 || diag2;
+    }
+
+    /**
+     * Full 75-number games marked two ways: per-card markNumber + checkBingo
+     * on BingoCard objects, and CardStore's inverted index with incremental
+     * line counters. Both must agree on the draw each card first wins.
+     */
+    static void index(int cardCount) {
+        BingoCard[] cards = new BingoCard[cardCount];
+        CardStore store = new CardStore(cardCount);
+        for (int c = 0; c < cardCount; c++) {
+            cards[c] = new BingoCard();
+            store.add(cards[c]);
+        }
+        DrawSequence draws = new DrawSequence(7);
+        int[] sequence = new int[DrawSequence.NUMBERS];
+        for (int d = 0; d < sequence.length; d++) sequence[d] = draws.next();
+
+        // Checksums: sum over cards of the draw on which each first won
+        long start = System.nanoTime();
+        long objectWins = 0;
+        boolean[] won = new boolean[cardCount];
+        for (int d = 0; d < sequence.length; d++) {
+            for (int c = 0; c < cardCount; c++) {
+                cards[c].markNumber(sequence[d]);
+                if (!won[c] && cards[c].checkBingo()) {
+                    won[c] = true;
+                    objectWins += d + 1;
+                }
+            }
+        }
+        long objectNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long indexWins = 0;
+        for (int d = 0; d < sequence.length; d++) {
+            indexWins += (long) store.markNumber(sequence[d]) * (d + 1);
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        System.out.printf("cards=%d winDrawChecksum object=%d index=%d%n", cardCount, objectWins, indexWins);
+        System.out.printf("markNumber+checkBingo: %.1f us/draw%n", objectNanos / 1e3 / sequence.length);
+        System.out.printf("CardStore index:       %.1f us/draw%n", indexNanos / 1e3 / sequence.length);
+    }
+
+    /**
+     * Every catalogue WinPattern evaluated on every card after each draw of
+     * a full game, three ways: nested loops over marked[][] for each shape,
+     * each card's mark mask against every pattern's masks, and only the
+     * cards holding the drawn number against the masks through its cell.
+     * All three must agree on how many (card, pattern) pairs have matched.
+     */
+    static void patterns(int cardCount) {
+        WinPattern[] patterns = WinPattern.all().toArray(new WinPattern[0]);
+        int maskTotal = 0;
+        int[][][] shapes = new int[patterns.length][][];
+        for (int p = 0; p < patterns.length; p++) {
+            maskTotal += patterns[p].maskCount();
+            shapes[p] = shapeCells(patterns[p]);
+        }
+        BingoCard[] cards = new BingoCard[cardCount];
+        // positions[n] lists (card * 25 + cell) for every cell holding number n
+        int[][] positions = new int[DrawSequence.NUMBERS + 1][];
+        int[] counts = new int[DrawSequence.NUMBERS + 1];
+        for (int c = 0; c < cardCount; c++) {
+            cards[c] = new BingoCard();
+            for (int[] row : cards[c].getCardNumbers()) for (int n : row) counts[n]++;
+        }
+        for (int n = 0; n < positions.length; n++) positions[n] = new int[counts[n]];
+        for (int c = 0; c < cardCount; c++) {
+            int[][] numbers = cards[c].getCardNumbers();
+            for (int cell = 0; cell < CardStore.CELLS; cell++) {
+                int n = numbers[cell / 5][cell % 5];
+                positions[n][--counts[n]] = c * CardStore.CELLS + cell;
+            }
+        }
+        DrawSequence draws = new DrawSequence(7);
+        int[] sequence = new int[DrawSequence.NUMBERS];
+        for (int d = 0; d < sequence.length; d++) sequence[d] = draws.next();
+        System.out.printf("patterns: %d patterns (%d masks) on %,d cards, %d draws%n",
+                patterns.length, maskTotal, cardCount, sequence.length);
+
+        long loopNanos = 0, maskNanos = 0, touchedNanos = 0;
+        long loopSum = 0, maskSum = 0, touchedSum = 0;
+        int[] masks = new int[cardCount];
+        Arrays.fill(masks, 1 << 12); // the free centre
+        int[] matched = new int[cardCount]; // bit p set once the card matches pattern p
+        long matchedPairs = 0;
+        for (int d = 0; d < sequence.length; d++) {
+            int number = sequence[d];
+            for (BingoCard card : cards) card.markNumber(number);
+
+            long start = System.nanoTime();
+            long pairs = 0;
+            for (BingoCard card : cards) {
+                boolean[][] marked = card.getMarkedStatus();
+                for (int[][] shape : shapes) if (loopMatches(marked, shape)) pairs++;
+            }
+            loopNanos += System.nanoTime() - start;
+            loopSum += pairs;
+
+            start = System.nanoTime();
+            pairs = 0;
+            for (BingoCard card : cards) {
+                int mask = card.getMarkedMask();
+                for (WinPattern pattern : patterns) if (pattern.matches(mask)) pairs++;
+            }
+            maskNanos += System.nanoTime() - start;
+            maskSum += pairs;
+
+            start = System.nanoTime();
+            for (int position : positions[number]) {
+                int c = position / CardStore.CELLS;
+                int cell = position - c * CardStore.CELLS;
+                int mask = masks[c] |= 1 << cell;
+                for (int p = 0; p < patterns.length; p++) {
+                    if ((matched[c] & 1 << p) == 0 && patterns[p].completedBy(mask, cell)) {
+                        matched[c] |= 1 << p;
+                        matchedPairs++;
+                    }
+                }
+            }
+            touchedNanos += System.nanoTime() - start;
+            touchedSum += matchedPairs;
+        }
+        double drawn = sequence.length;
+        System.out.printf("  nested loops, every card: %,9.0f us/draw (checksum %d)%n",
+                loopNanos / 1e3 / drawn, loopSum);
+        System.out.printf("  masks, every card:        %,9.0f us/draw (checksum %d)%n",
+                maskNanos / 1e3 / drawn, maskSum);
+        System.out.printf("  masks, cards with number: %,9.0f us/draw (checksum %d)%n",
+                touchedNanos / 1e3 / drawn, touchedSum);
+    }
+
+    /** Each of a pattern's masks as the (row, col) cells a nested-loop check would visit. */
+    private static int[][] shapeCells(WinPattern pattern) {
+        List<int[]> shapes = new ArrayList<>();
+        for (int m = 0; m < pattern.maskCount(); m++) {
+            int mask = pattern.mask(m);
+            int[] cells = new int[Integer.bitCount(mask)];
+            for (int cell = 0, k = 0; cell < CardStore.CELLS; cell++) {
+                if ((mask & 1 << cell) != 0) cells[k++] = cell;
+            }
+            shapes.add(cells);
+        }
+        return shapes.toArray(new int[0][]);
+    }
+
+    private static boolean loopMatches(boolean[][] marked, int[][] shape) {
+        for (int[] cells : shape) {
+            boolean all = true;
+            for (int k = 0; k < cells.length && all; k++) all = marked[cells[k] / 5][cells[k] % 5];
+            if (all) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Retained memory per card: BingoCard objects versus CardStore on-heap
+     * and off-heap (direct buffer bytes reported separately).
+     */
+    static void footprint(int cardCount) {
+        long base = usedHeap();
+        BingoCard[] objects = new BingoCard[cardCount];
+        for (int c = 0; c < cardCount; c++) objects[c] = new BingoCard();
+        long objectBytes = usedHeap() - base;
+        int kept = objects.length;
+        objects = null;
+
+        base = usedHeap();
+        CardStore heapStore = new CardStore(cardCount, false);
+        for (int c = 0; c < cardCount; c++) heapStore.add(new BingoCard());
+        long heapStoreBytes = usedHeap() - base;
+        kept += heapStore.size();
+        heapStore = null;
+
+        base = usedHeap();
+        long directBase = directBytes();
+        CardStore directStore = new CardStore(cardCount, true);
+        for (int c = 0; c < cardCount; c++) directStore.add(new BingoCard());
+        long directHeapBytes = usedHeap() - base;
+        long directBufferBytes = directBytes() - directBase;
+        kept += directStore.size();
+
+        double perMillion = 1e6 / cardCount / (1024 * 1024);
+        System.out.printf("cards=%d kept=%d%n", cardCount, kept);
+        System.out.printf("BingoCard objects:  %6.1f B/card, %5.0f MB heap per million%n",
+                (double) objectBytes / cardCount, objectBytes * perMillion);
+        System.out.printf("CardStore on-heap:  %6.1f B/card, %5.0f MB heap per million%n",
+                (double) heapStoreBytes / cardCount, heapStoreBytes * perMillion);
+        System.out.printf("CardStore off-heap: %6.1f B/card, %5.0f MB heap + %.0f MB direct per million%n",
+                (double) (directHeapBytes + directBufferBytes) / cardCount,
+                directHeapBytes * perMillion, directBufferBytes * perMillion);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long directBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+
+    /**
+     * Card generation throughput: the old per-card new Random() + boxed
+     * HashSet rejection loop, then CardGenerator single-threaded and in
+     * parallel on the common fork-join pool, with and without B-I-N-G-O
+     * column ranges.
+     */
+    static void generate(int cardCount) {
+        for (int warmup = 0; warmup < 2; warmup++) {
+            legacyDeck(cardCount / 10);
+            CardGenerator.generate(cardCount / 10, 1, false, false);
+            CardGenerator.generate(cardCount / 10, 1, true, true);
+        }
+        System.out.printf("cards=%d cores=%d%n", cardCount, Runtime.getRuntime().availableProcessors());
+
+        long start = System.nanoTime();
+        int[] deck = legacyDeck(cardCount);
+        reportRate("HashSet rejection", cardCount, System.nanoTime() - start, deck);
+
+        for (boolean columns : new boolean[] {false, true}) {
+            for (boolean parallel : new boolean[] {false, true}) {
+                start = System.nanoTime();
+                deck = CardGenerator.generate(cardCount, 42, columns, parallel);
+                reportRate("Fisher-Yates" + (columns ? " columns" : "") + (parallel ? " parallel" : " single"),
+                        cardCount, System.nanoTime() - start, deck);
+            }
+        }
+        int[] again = CardGenerator.generate(cardCount, 42, true, false);
+        System.out.println("same seed, same deck single vs parallel: " + Arrays.equals(deck, again));
+    }
+
+    /**
+     * Text lines against PROTO:BIN frames: bytes on the wire for a whole
+     * game, encode cost per message, client decode cost per NUMBER, and one
+     * room broadcasting every draw to many in-memory recipients.
+     */
+    static void protocol(int recipients) throws IOException {
+        List<String> game = new ArrayList<>();
+        game.add(BingoCard.toProtocol(CardGenerator.generate(1, 7, true, false)));
+        game.add("GAME_START");
+        DrawSequence draws = new DrawSequence(7);
+        while (draws.hasNext()) game.add("NUMBER:" + draws.next());
+        game.add("WINNER:player-1");
+        long textBytes = 0, binaryBytes = 0;
+        for (String msg : game) {
+            textBytes += BingoServer.encodeLine(msg).length;
+            binaryBytes += BingoProtocol.encodeFrame(msg).length;
+        }
+        System.out.printf("bytes per player per game: text=%d binary=%d (%.1fx smaller)%n",
+                textBytes, binaryBytes, (double) textBytes / binaryBytes);
+        System.out.printf("bytes per game to %,d players: text=%,d binary=%,d%n",
+                recipients, textBytes * recipients, binaryBytes * recipients);
+
+        int rounds = 2_000_000;
+        for (int pass = 0; pass < 4; pass++) {
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) sink += BingoServer.encodeLine("NUMBER:" + (i % 75 + 1)).length;
+            long textNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) sink += BingoProtocol.encodeFrame("NUMBER:" + (i % 75 + 1)).length;
+            long frameNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) sink += BingoProtocol.Encoded.of("NUMBER:" + (i % 75 + 1)).binary.length;
+            long bothNanos = System.nanoTime() - start;
+            if (pass == 3) {
+                System.out.printf("encode NUMBER ns: text=%.1f frame=%.1f both (per broadcast)=%.1f (checksum %d)%n",
+                        (double) textNanos / rounds, (double) frameNanos / rounds, (double) bothNanos / rounds, sink);
+            }
+        }
+
+        ByteArrayOutputStream textStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream frameStream = new ByteArrayOutputStream();
+        for (int i = 0; i < rounds; i++) {
+            String msg = "NUMBER:" + (i % 75 + 1);
+            textStream.write(BingoServer.encodeLine(msg));
+            frameStream.write(BingoProtocol.encodeFrame(msg));
+        }
+        for (int pass = 0; pass < 4; pass++) {
+            long sink = 0;
+            long start = System.nanoTime();
+            BufferedReader lines = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(textStream.toByteArray())));
+            String line;
+            while ((line = lines.readLine()) != null) sink += Integer.parseInt(line.split(":")[1]);
+            long legacyNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            BingoProtocol.Reader reader = new BingoProtocol.Reader(new ByteArrayInputStream(textStream.toByteArray()));
+            while (reader.next()) sink += reader.number();
+            long textNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            reader = new BingoProtocol.Reader(new ByteArrayInputStream(frameStream.toByteArray()));
+            reader.switchToBinary();
+            while (reader.next()) sink += reader.number();
+            long frameNanos = System.nanoTime() - start;
+            if (pass == 3) {
+                System.out.printf("decode NUMBER ns: readLine+split=%.1f Reader text=%.1f Reader binary=%.1f (checksum %d)%n",
+                        (double) legacyNanos / rounds, (double) textNanos / rounds, (double) frameNanos / rounds, sink);
+            }
+        }
+
+        PrintStream console = silenceStdout();
+        for (boolean binary : new boolean[] {false, true}) {
+            BingoRoom room = new BingoRoom(1, BingoServer.scheduler, 0, 1);
+            for (int p = 0; p < recipients; p++) {
+                SinkPlayer player = new SinkPlayer("p" + p);
+                player.binary = binary;
+                player.room = room;
+                room.join(player);
+            }
+            for (int warmup = 0; warmup < 300; warmup++) room.broadcast("NUMBER:" + (warmup % 75 + 1));
+            SinkPlayer.bytes.reset();
+            long start = System.nanoTime();
+            for (int n = 1; n <= 75; n++) room.broadcast("NUMBER:" + n);
+            long nanos = System.nanoTime() - start;
+            console.printf("broadcast 75 draws to %,d %s players: %.1f us/draw, %,d bytes queued%n",
+                    recipients, binary ? "binary" : "text", nanos / 1e3 / 75, SinkPlayer.bytes.sum());
+        }
+        System.setOut(console);
+    }
+
+    /**
+     * What instrumentation costs on the hot path: room broadcasts with
+     * BingoMetrics on and off (alternating passes), and one log call as a
+     * synchronized println, a BingoLog enqueue, and a disabled BingoLog
+     * level check.
+     */
+    static void metrics(int recipients) {
+        PrintStream console = silenceStdout();
+        BingoRoom room = new BingoRoom(1, BingoServer.scheduler, 0, 1);
+        for (int p = 0; p < recipients; p++) {
+            SinkPlayer player = new SinkPlayer("p" + p);
+            player.room = room;
+            room.join(player);
+        }
+        int broadcasts = Math.max(1_000, 20_000_000 / recipients);
+        long[] nanos = new long[2];
+        for (int pass = 0; pass < 10; pass++) {
+            boolean on = pass % 2 == 0;
+            BingoMetrics.enabled = on;
+            long start = System.nanoTime();
+            for (int b = 0; b < broadcasts; b++) room.broadcast("NUMBER:" + (b % 75 + 1));
+            // The first pair of passes is warmup
+            if (pass >= 2) nanos[on ? 1 : 0] += System.nanoTime() - start;
+        }
+        BingoMetrics.enabled = true;
+        double off = nanos[0] / 4.0 / broadcasts, on = nanos[1] / 4.0 / broadcasts;
+        console.printf("broadcast to %,d recipients: metrics off %.0f ns, on %.0f ns (%+.1f%%)%n",
+                recipients, off, on, (on - off) / off * 100);
+
+        int lines = 200_000;
+        long[] logNanos = new long[3];
+        for (int pass = 0; pass < 4; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < lines; i++) {
+                if (BingoLog.enabled(BingoLog.Level.DEBUG)) BingoLog.debug("[Room 1] Sent number: " + (i % 75 + 1));
+            }
+            long disabled = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < lines; i++) System.out.println("[Room 1] Sent number: " + (i % 75 + 1));
+            long println = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < lines; i++) BingoLog.info("[Room 1] Sent number: " + (i % 75 + 1));
+            long async = System.nanoTime() - start;
+            if (pass > 0) {
+                logNanos[0] += println;
+                logNanos[1] += async;
+                logNanos[2] += disabled;
+            }
+        }
+        console.printf("log call: println %.0f ns, BingoLog enqueue %.0f ns, disabled level %.1f ns (%d dropped)%n",
+                logNanos[0] / 3.0 / lines, logNanos[1] / 3.0 / lines, logNanos[2] / 3.0 / lines,
+                BingoLog.dropped.sum());
+        console.print(BingoMetrics.scrape().lines().filter(l -> l.startsWith("bingo_broadcast_seconds"))
+                .reduce("", (a, l) -> a + l + "\n"));
+        System.setOut(console);
+    }
+
+    /**
+     * Journal append throughput for each fsync policy with one and four
+     * appending threads, then how long a restart takes to read the journal
+     * back and restore the games left unfinished (one in a hundred).
+     * Events come as whole games: 100 joins and readies, 40 draws, a claim,
+     * a winner.
+     */
+    static void journal(int events) throws IOException, InterruptedException {
+        PrintStream console = silenceStdout();
+        int players = 100;
+        int eventsPerGame = 2 * players + 45;
+        int games = Math.max(4, events / eventsPerGame);
+        Path file = Files.createTempFile("bingo-journal", ".bj");
+        try {
+            console.printf("journal: %,d games, %,d events per run%n", games, (long) games * eventsPerGame);
+            for (long syncMillis : new long[] {0, 10, -1}) {
+                for (int threads : new int[] {1, 4}) {
+                    Files.delete(file);
+                    GameJournal journal = GameJournal.open(file, 0, syncMillis);
+                    List<Thread> appenders = new ArrayList<>();
+                    long start = System.nanoTime();
+                    for (int t = 0; t < threads; t++) {
+                        int first = t * games / threads, last = (t + 1) * games / threads;
+                        appenders.add(Threads.start(() -> {
+                            for (int g = first; g < last; g++) appendGame(g + 1, players);
+                        }, false));
+                    }
+                    for (Thread appender : appenders) appender.join();
+                    journal.sync();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    journal.close();
+                    console.printf("  sync=%-5s threads=%d: %,10.0f events/s  %6.1f MB/s  fsyncs=%,d%n",
+                            syncMillis == 0 ? "batch" : syncMillis < 0 ? "off" : syncMillis + "ms", threads,
+                            (double) games * eventsPerGame / seconds, Files.size(file) / 1e6 / seconds,
+                            journal.syncCount());
+                }
+            }
+
+            long start = System.nanoTime();
+            GameJournal.Recovery recovery = GameJournal.read(file);
+            long readNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (GameJournal.RoomLog log : recovery.rooms.values()) {
+                new BingoRoom(log.id, BingoServer.scheduler, 1000, log.seed).restore(log);
+            }
+            long restoreNanos = System.nanoTime() - start;
+            console.printf("recovery: %,d events, %.1f MB read in %.0f ms (%,.0f events/s), "
+                            + "%d unfinished games restored in %.1f ms%n",
+                    recovery.events, Files.size(file) / 1e6, readNanos / 1e6,
+                    recovery.events / (readNanos / 1e9), recovery.rooms.size(), restoreNanos / 1e6);
+        } finally {
+            Files.deleteIfExists(file);
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * GUI cost per drawn number, headless: the old layout (25 JButtons per
+     * card, every button restyled and the whole panel painted) against
+     * CardSheet, which marks the number and paints only the cells it
+     * invalidated. Both render into an offscreen image.
+     */
+    static void sheet(int cardCount) {
+        System.setProperty("java.awt.headless", "true");
+        List<BingoCard> cards = new ArrayList<>();
+        for (int c = 0; c < cardCount; c++) cards.add(new BingoCard());
+        int rounds = Math.max(2, 2000 / cardCount);
+
+        // Old: a GridLayout of JButtons per card, all restyled on every NUMBER:
+        JPanel grid = new JPanel(new GridLayout(0, 6, 10, 10));
+        List<JButton[]> buttons = new ArrayList<>();
+        for (int c = 0; c < cardCount; c++) {
+            JPanel card = new JPanel(new GridLayout(5, 5, 5, 5));
+            JButton[] cells = new JButton[25];
+            for (int i = 0; i < 25; i++) {
+                cells[i] = new JButton(Integer.toString(i));
+                cells[i].setPreferredSize(new Dimension(60, 60));
+                card.add(cells[i]);
+            }
+            buttons.add(cells);
+            grid.add(card);
+        }
+        grid.setSize(grid.getPreferredSize());
+        layoutTree(grid);
+        BufferedImage oldImage = new BufferedImage(grid.getWidth(), grid.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        long oldNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            List<BingoCard> game = freshCopies(cards);
+            long start = System.nanoTime();
+            for (int number = 1; number <= 75; number++) {
+                for (int c = 0; c < cardCount; c++) {
+                    game.get(c).markNumber(number);
+                    boolean[][] marked = game.get(c).getMarkedStatus();
+                    for (int i = 0; i < 25; i++) {
+                        buttons.get(c)[i].setBackground(marked[i / 5][i % 5] ? Color.GREEN : null);
+                    }
+                }
+                Graphics g = oldImage.getGraphics();
+                grid.paint(g);
+                g.dispose();
+            }
+            if (round > 0) oldNanos += System.nanoTime() - start;
+        }
+
+        // New: one CardSheet painting just its invalidated cells
+        List<Rectangle> dirty = new ArrayList<>();
+        CardSheet sheet = new CardSheet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void repaint(long tm, int x, int y, int width, int height) {
+                dirty.add(new Rectangle(x, y, width, height));
+            }
+        };
+        sheet.setCards(freshCopies(cards));
+        sheet.setSize(sheet.getPreferredSize());
+        BufferedImage newImage = new BufferedImage(sheet.getWidth(),
+                sheet.getHeight(), BufferedImage.TYPE_INT_RGB);
+        long newNanos = 0, cellsPainted = 0;
+        for (int round = 0; round < rounds; round++) {
+            sheet.setCards(freshCopies(cards));
+            dirty.clear();
+            long start = System.nanoTime();
+            for (int number = 1; number <= 75; number++) {
+                sheet.mark(number);
+                for (Rectangle r : dirty) {
+                    Graphics g = newImage.getGraphics();
+                    g.setClip(r);
+                    sheet.paint(g);
+                    g.dispose();
+                }
+                if (round > 0) cellsPainted += dirty.size();
+                dirty.clear();
+            }
+            if (round > 0) newNanos += System.nanoTime() - start;
+        }
+        int draws = 75 * (rounds - 1);
+        long fullStart = System.nanoTime();
+        for (int round = 0; round < 20; round++) {
+            Graphics g = newImage.getGraphics();
+            sheet.paint(g);
+            g.dispose();
+        }
+        double fullMicros = (System.nanoTime() - fullStart) / 1e3 / 20;
+        System.out.printf("cards=%d: JButtons %.0f us/draw (%d components), CardSheet %.1f us/draw "
+                        + "(%.1f regions/draw, full sheet %.0f us)%n",
+                cardCount, oldNanos / 1e3 / draws, cardCount * 26 + 1, newNanos / 1e3 / draws,
+                (double) cellsPainted / draws, fullMicros);
+    }
+
+    /**
+     * Server-side marking for one game of cardsPerGame cards: every draw
+     * marks all cards holding the number and pushes NEAR:/WIN: to AUTODAUB
+     * owners. Nobody claims, so all 75 numbers are drawn (turbo mode).
+     * Reports per-draw processing time with AUTODAUB off and on.
+     */
+    static void autoDaub(int cardsPerGame, int cardsPerPlayer) throws InterruptedException {
+        PrintStream console = silenceStdout();
+        BingoServer.maxCardsPerPlayer = cardsPerPlayer;
+        console.printf("autodaub: %,d cards per game, %d per player%n", cardsPerGame, cardsPerPlayer);
+        double[] avg = new double[2], max = new double[2];
+        long[] noticeCount = new long[2];
+        for (int pass = 0; pass < 8; pass++) {
+            boolean notify = pass % 2 == 1;
+            BingoRoom room = new BingoRoom(pass + 1, BingoServer.scheduler, 0, pass);
+            List<SinkPlayer> players = new ArrayList<>();
+            for (int p = 0; p * cardsPerPlayer < cardsPerGame; p++) {
+                SinkPlayer player = new SinkPlayer("p" + p);
+                player.cardCount = cardsPerPlayer;
+                player.autoDaub = notify;
+                player.room = room;
+                room.join(player);
+                players.add(player);
+            }
+            long linesBefore = SinkPlayer.lines.sum();
+            for (SinkPlayer player : players) room.playerReady(player);
+            while (!room.isFinished()) Thread.sleep(1);
+            // The first game of each kind is warmup
+            if (pass < 2) continue;
+            int kind = notify ? 1 : 0;
+            avg[kind] += room.averageMarkMicros() / 3;
+            max[kind] = Math.max(max[kind], room.maxMarkMicros());
+            // Lines beyond the per-player CARD:, PATTERN:, GAME_START and NUMBER: traffic are NEAR:/WIN:
+            noticeCount[kind] += (SinkPlayer.lines.sum() - linesBefore
+                    - (long) players.size() * (cardsPerPlayer + 2 + 75)) / 3;
+        }
+        for (int kind = 0; kind < 2; kind++) {
+            console.printf("  autodaub %-3s: mark+notify avg %,.0f us, max %,.0f us per draw; %,d notices per game%n",
+                    kind == 1 ? "on" : "off", avg[kind], max[kind], noticeCount[kind]);
+        }
+        System.setOut(console);
+    }
+
+    /**
+     * Stress test for the lobby: per round, threads released together send
+     * every seated player's ready (so each player is readied once per
+     * thread) while another thread keeps seating and readying late joiners.
+     * Checks that each game started exactly once, that every seated player
+     * got its card and GAME_START exactly once and that no join succeeded
+     * after the start, and reports ready calls per second.
+     */
+    static void readyStorm(int playerCount, int threadCount, int rounds, StartPolicy policy)
+            throws InterruptedException {
+        PrintStream console = silenceStdout();
+        BingoServer.startPolicy = policy;
+        console.printf("ready: %,d players, %d threads, %d rounds, --start=%s%n",
+                playerCount, threadCount, rounds, policy);
+        long readyCalls = 0, readyNanos = 0, lateJoins = 0, failures = 0;
+        for (int round = 0; round < rounds; round++) {
+            // Long enough that no number is drawn while the storm runs
+            BingoRoom room = new BingoRoom(round + 1, BingoServer.scheduler, 3_600_000, round);
+            List<ReadyPlayer> seated = Collections.synchronizedList(new ArrayList<>());
+            for (int p = 0; p < playerCount; p++) {
+                ReadyPlayer player = new ReadyPlayer("p" + p);
+                player.room = room;
+                room.join(player);
+                seated.add(player);
+            }
+            List<ReadyPlayer> players = new ArrayList<>(seated);
+
+            CountDownLatch go = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            AtomicInteger calls = new AtomicInteger();
+            for (int t = 0; t < threadCount; t++) {
+                int offset = t * playerCount / threadCount;
+                threads.add(new Thread(() -> {
+                    awaitQuietly(go);
+                    for (int i = 0; i < playerCount; i++) {
+                        room.playerReady(players.get((offset + i) % playerCount));
+                    }
+                    calls.addAndGet(playerCount);
+                }));
+            }
+            AtomicInteger joined = new AtomicInteger();
+            Thread joiner = new Thread(() -> {
+                awaitQuietly(go);
+                for (int j = 0; !room.isStarted(); j++) {
+                    ReadyPlayer late = new ReadyPlayer("late" + j);
+                    late.room = room;
+                    if (!room.join(late)) break;
+                    seated.add(late);
+                    joined.incrementAndGet();
+                    room.playerReady(late);
+                    calls.incrementAndGet();
+                }
+            });
+            threads.add(joiner);
+            for (Thread thread : threads) thread.start();
+            long start = System.nanoTime();
+            go.countDown();
+            for (Thread thread : threads) thread.join();
+            readyNanos += System.nanoTime() - start;
+            readyCalls += calls.get();
+            lateJoins += joined.get();
+
+            // A countdown start fires on the scheduler, and the start itself may still be sending
+            long deadline = System.nanoTime() + 10_000_000_000L + policy.countdownMillis * 1_000_000;
+            while (System.nanoTime() < deadline && !allStarted(seated)) Thread.sleep(1);
+            Thread.sleep(20);
+            int wrong = 0;
+            for (ReadyPlayer player : seated) {
+                if (player.starts.get() != 1 || player.cards.get() != 1) wrong++;
+            }
+            if (wrong > 0 || room.readyCount() != seated.size()) {
+                failures++;
+                console.printf("  round %d FAILED: %d of %d players without exactly one GAME_START and card,"
+                        + " %d ready%n", round, wrong, seated.size(), room.readyCount());
+            }
+            room.pause();
+        }
+        console.printf("  %,d ready calls in %.1f ms: %,.0f readies/s, %,d late joins seated, %d failed rounds%n",
+                readyCalls, readyNanos / 1e6, readyCalls / (readyNanos / 1e9), lateJoins, failures);
+        System.setOut(console);
+        BingoServer.startPolicy = StartPolicy.ALL;
+    }
+
+    /**
+     * Claim flood: turbo games of one-card AUTODAUB players where, the
+     * moment the first WIN: goes out, threads released together send BINGO
+     * for every player at once, winners or not. Reports how long claims
+     * waited for WINNER: (and the co-winners for PRIZE:, the losers for
+     * INVALID_BINGO) and how many numbers were drawn after the first WIN:,
+     * and checks that every player got exactly one WINNER: and exactly one
+     * PRIZE: or INVALID_BINGO; claims arriving once the window has closed
+     * are answered INVALID_BINGO after the WINNER:. Logging is turned down
+     * to WARN, or the two INFO lines per claim would swamp the log queue.
+     * The first round is warmup.
+     *
+     * With "gateway" the rooms are shards of an in-process BingoGateway,
+     * which a second, rival shard beats every game by claiming an earlier
+     * draw the moment the flood starts: every player here must then get
+     * INVALID_BINGO, and none a PRIZE:.
+     */
+    static void claimFlood(int playerCount, int threadCount, int windowMs, int rounds, boolean gateway)
+            throws IOException, InterruptedException {
+        PrintStream console = silenceStdout();
+        BingoServer.claimWindowMs = windowMs;
+        BingoLog.setLevel(BingoLog.Level.WARN);
+        console.printf("claimflood: %,d players claiming at once from %d threads, --claim-window=%d ms%s%n",
+                playerCount, threadCount, windowMs, gateway ? ", through a gateway with a rival shard" : "");
+        RivalShard rival = null;
+        if (gateway) {
+            ServerSocket control = new ServerSocket(0);
+            // A draw every 10 ms: turbo would send all 75 numbers, and end the game, before the shard marks any
+            new BingoGateway(10, windowMs, BingoServer.prize, StartPolicy.ALL, BingoServer.stages, 0L, false)
+                    .serveShards(control);
+            // As on a shard process; rooms pick up both when they are built, before the first OPEN
+            BingoServer.startPolicy = StartPolicy.EXTERNAL;
+            BingoServer.shardLink = ShardLink.connect("localhost:" + control.getLocalPort(), 0);
+            BingoServer.shardLink.start();
+            rival = new RivalShard(control.getLocalPort());
+        }
+        LatencyHistogram toWinner = new LatencyHistogram();
+        LatencyHistogram toPrize = new LatencyHistogram();
+        LatencyHistogram toInvalid = new LatencyHistogram();
+        long coWinners = 0, lateDraws = 0, lateClaims = 0, failures = 0;
+        for (int round = 0; round < rounds; round++) {
+            BingoRoom room = gateway ? awaitRoom(round + 1) : new BingoRoom(round + 1, BingoServer.scheduler, 0, round);
+            CountDownLatch firstWin = new CountDownLatch(1);
+            AtomicInteger winDraw = new AtomicInteger(-1);
+            List<FloodPlayer> players = new ArrayList<>();
+            for (int p = 0; p < playerCount; p++) {
+                FloodPlayer player = new FloodPlayer("p" + p, room, firstWin, winDraw);
+                player.autoDaub = true;
+                room.join(player);
+                players.add(player);
+            }
+            List<Thread> threads = new ArrayList<>();
+            if (rival != null) {
+                RivalShard beats = rival;
+                int game = round + 1;
+                threads.add(new Thread(() -> {
+                    awaitQuietly(firstWin);
+                    beats.claim(game, winDraw.get() - 1);
+                }));
+            }
+            for (int t = 0; t < threadCount; t++) {
+                int from = t * playerCount / threadCount, to = (t + 1) * playerCount / threadCount;
+                threads.add(new Thread(() -> {
+                    awaitQuietly(firstWin);
+                    for (FloodPlayer player : players.subList(from, to)) {
+                        player.claimedAt = System.nanoTime();
+                        room.bingoClaimed(player);
+                    }
+                }));
+            }
+            for (Thread thread : threads) thread.start();
+            for (FloodPlayer player : players) room.playerReady(player);
+            for (Thread thread : threads) thread.join();
+            while (!room.isFinished()) Thread.sleep(1);
+            // Claims queued after the window closed are answered by drain tasks that may still be queued
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (unanswered(players) > 0 && System.nanoTime() < deadline) Thread.sleep(1);
+
+            int wrong = 0, prizes = 0, late = 0;
+            for (FloodPlayer player : players) {
+                if (player.winners.get() != 1 || player.answers.get() != 1) wrong++;
+                if (player.prizeAt != 0) prizes++;
+                if (player.invalidAt > player.winnerAt) late++;
+            }
+            if (wrong > 0 || (gateway ? prizes > 0 : prizes == 0)) {
+                failures++;
+                console.printf("  round %d FAILED: %d players without exactly one WINNER: and one answer,"
+                        + " %d co-winners%n", round, wrong, prizes);
+            }
+            if (round == 0) continue;
+            for (FloodPlayer player : players) {
+                // Only claims still waiting when WINNER: went out
+                if (player.claimedAt < player.winnerAt) toWinner.record((player.winnerAt - player.claimedAt) / 1_000);
+                if (player.prizeAt != 0) toPrize.record((player.prizeAt - player.claimedAt) / 1_000);
+                if (player.invalidAt != 0) toInvalid.record((player.invalidAt - player.claimedAt) / 1_000);
+            }
+            coWinners += prizes;
+            lateClaims += late;
+            lateDraws += room.draws().position() - winDraw.get();
+        }
+        console.println("  BINGO->WINNER:        " + toWinner.summary("us"));
+        console.println("  BINGO->PRIZE:         " + toPrize.summary("us"));
+        console.println("  BINGO->INVALID_BINGO  " + toInvalid.summary("us"));
+        double games = rounds - 1;
+        console.printf("  per game: %.1f co-winners, %.1f numbers drawn after the first WIN:, %,.0f claims"
+                + " answered after the WINNER:; %d failed rounds%n", coWinners / games, lateDraws / games, lateClaims / games,
+                failures);
+        System.setOut(console);
+        BingoServer.claimWindowMs = 0;
+        BingoServer.shardLink = null;
+        BingoServer.startPolicy = StartPolicy.ALL;
+        BingoLog.setLevel(BingoLog.Level.INFO);
+    }
+
+    /** Waits for the gateway to have this shard open the given game. */
+    private static BingoRoom awaitRoom(int id) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        BingoRoom room;
+        while ((room = BingoServer.room(id)) == null) {
+            if (System.nanoTime() > deadline) throw new IOException("The gateway never opened game " + id);
+            Thread.sleep(1);
+        }
+        return room;
+    }
+
+    /**
+     * A second shard on a bare control connection, whose only move is a
+     * claim for a card completed on the given draw. It reads and drops
+     * everything the gateway sends, so the gateway never blocks on it.
+     */
+    static final class RivalShard {
+        private final PrintWriter out;
+
+        RivalShard(int controlPort) throws IOException {
+            Socket socket = new Socket("localhost", controlPort);
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            send("HELLO 0");
+            Thread reader = new Thread(() -> {
+                try {
+                    while (in.readLine() != null) {
+                        // dropped
+                    }
+                } catch (IOException e) {
+                    // the benchmark is over
+                }
+            }, "bingo-rival-shard");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void claim(int game, int wonAt) {
+            send("CLAIM " + game + " 0 " + wonAt + " 0 rival");
+        }
+
+        private synchronized void send(String line) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    /**
+     * Scale-out check for BingoGateway: for 1..maxShards shards, starts a
+     * gateway and that many NIO shard processes, plays one game of all the
+     * players through the gateway with BingoLoadClient (also forked) and
+     * reports connect latency, draw-to-receipt latency (stamped by the
+     * gateway, so it includes the hop to the shard) and peak RSS per process.
+     * The "0 shards" line is a single NIO server without a gateway.
+     */
+    static void shards(int maxShards, int players, int intervalMs) throws IOException, InterruptedException {
+        System.out.printf("shards: %,d players in one game, draw every %d ms%n", players, intervalMs);
+        for (int count = 0; count <= maxShards; count++) {
+            Path gatewayLog = Files.createTempFile("bingo-gateway", ".log");
+            List<Process> shardProcesses = new ArrayList<>();
+            // Virtual threads for the relays where the JVM has them
+            Process gateway = new ProcessBuilder(count == 0
+                    ? javaCommand("BingoServer", "--nio", "--interval=" + intervalMs)
+                    : javaCommand("BingoGateway", "--virtual", "--interval=" + intervalMs))
+                    .redirectErrorStream(true).redirectOutput(gatewayLog.toFile()).start();
+            try {
+                awaitLog(gatewayLog, count == 0 ? "started on port" : "Bingo Gateway", 0);
+                for (int i = 0; i < count; i++) {
+                    shardProcesses.add(new ProcessBuilder(javaCommand("BingoServer", "--nio", "--log=warn",
+                            "--port=" + (BingoServer.PORT + 1 + i), "--shard-of=localhost:" + BingoGateway.CONTROL_PORT))
+                            .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start());
+                }
+                if (count > 0) awaitLog(gatewayLog, "registered", count);
+
+                Process load = new ProcessBuilder(javaCommand("BingoLoadClient", String.valueOf(players),
+                        String.valueOf(players))).redirectErrorStream(true).start();
+                String elapsed = "", connect = "", number = "";
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(load.getInputStream()))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("elapsed")) elapsed = line;
+                        if (line.startsWith("connect->WELCOME")) connect = line;
+                        if (line.startsWith("NUMBER send->receipt")) number = line;
+                    }
+                }
+                load.waitFor();
+                long shardPeak = 0, shardMax = 0;
+                for (Process shard : shardProcesses) {
+                    long peak = peakRssMb(shard.pid());
+                    shardPeak += peak;
+                    shardMax = Math.max(shardMax, peak);
+                }
+                System.out.printf("%d shard%s: %s%n", count, count == 1 ? " " : "s", elapsed);
+                System.out.printf("  connect p50 %s ms, p99 %s ms; draw->receipt p50 %s ms, p99 %s ms%n",
+                        millis(connect, "p50"), millis(connect, "p99"), millis(number, "p50"), millis(number, "p99"));
+                if (count == 0) {
+                    System.out.printf("  peak RSS: server %d MB%n", peakRssMb(gateway.pid()));
+                } else {
+                    System.out.printf("  peak RSS: gateway %d MB, shards %d MB total, %d MB largest, %,d players/shard%n",
+                            peakRssMb(gateway.pid()), shardPeak, shardMax, players / count);
+                }
+            } finally {
+                for (Process shard : shardProcesses) shard.destroy();
+                gateway.destroy();
+                for (Process shard : shardProcesses) shard.waitFor();
+                gateway.waitFor();
+                Files.deleteIfExists(gatewayLog);
+            }
+        }
+    }
+
+    /**
+     * Connection churn against a forked server with short timeouts: opens
+     * connections at the given rate for the given seconds, most of which
+     * join the lobby and hang up at once. One in ten goes silent right after
+     * WELCOME and one in ten right after its name, and those sockets are
+     * held open to the end, as half-open connections would be. Prints the
+     * server's open connections, seated players, armed timers, file
+     * descriptors, threads and RSS once a second, during the churn and for
+     * a few seconds after, which should all level off rather than grow.
+     */
+    static void churn(int rate, int seconds, String mode) throws IOException, InterruptedException {
+        int metricsPort = BingoGateway.CONTROL_PORT + 1;
+        int handshakeMs = 1000, heartbeatMs = 500, idleMs = 1500;
+        List<String> command = javaCommand("BingoServer", "--log=warn", "--metrics=" + metricsPort,
+                "--handshake-timeout=" + handshakeMs, "--heartbeat=" + heartbeatMs, "--idle-timeout=" + idleMs);
+        if (mode.equals("nio")) command.add("--nio");
+        Process server = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        Queue<Socket> silent = new ConcurrentLinkedQueue<>();
+        try {
+            String scrape = "http://localhost:" + metricsPort + "/metrics";
+            long waitUntil = System.nanoTime() + 30_000_000_000L;
+            while (metric(scrape, "bingo_connections_total") < 0) {
+                if (System.nanoTime() > waitUntil) throw new IOException("Server did not start");
+                Thread.sleep(50);
+            }
+            System.out.printf("churn: %,d connections/s for %d s against a %s server, --handshake-timeout=%d"
+                    + " --heartbeat=%d --idle-timeout=%d%n", rate, seconds, mode, handshakeMs, heartbeatMs, idleMs);
+            System.out.printf("%5s %9s %11s %8s %7s %6s %8s %7s%n",
+                    "s", "opened/s", "connected", "seated", "timers", "fds", "threads", "rssMB");
+            AtomicInteger next = new AtomicInteger();
+            LongAdder opened = new LongAdder();
+            LongAdder errors = new LongAdder();
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < 32; t++) {
+                workers.add(new Thread(() -> {
+                    while (true) {
+                        int i = next.getAndIncrement();
+                        long due = start + i * 1_000_000_000L / rate;
+                        if (due >= end) return;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) LockSupport.parkNanos(wait);
+                        try {
+                            churnOnce(i, silent);
+                            opened.increment();
+                        } catch (IOException e) {
+                            errors.increment();
+                        }
+                    }
+                }, "churn-" + t));
+            }
+            for (Thread worker : workers) worker.start();
+            long lastOpened = 0;
+            // Sampled until the workers catch up, then for long enough that every silent socket has timed out
+            int settle = (handshakeMs + idleMs) / 1000 + 2;
+            for (int second = 1; settle > 0; second++) {
+                Thread.sleep(Math.max(0, start + second * 1_000_000_000L - System.nanoTime()) / 1_000_000);
+                if (second >= seconds && workers.stream().noneMatch(Thread::isAlive)) settle--;
+                long total = opened.sum();
+                System.out.printf("%5d %,9d %,11d %,8d %,7d %,6d %,8d %,7d%n", second, total - lastOpened,
+                        metric(scrape, "bingo_connected_clients"), metric(scrape, "bingo_room_players"),
+                        metric(scrape, "bingo_connection_timers"), openFds(server.pid()),
+                        procStatus(server.pid(), "Threads:"), procStatus(server.pid(), "VmRSS:") / 1024);
+                lastOpened = total;
+            }
+            for (Thread worker : workers) worker.join();
+            System.out.printf("  %,d connections (%,d errors), %,d held silent; server closed %,d at the handshake"
+                    + " timeout and %,d at the idle timeout after %,d PINGs%n", opened.sum(), errors.sum(),
+                    silent.size(), metric(scrape, "bingo_handshake_timeouts_total"),
+                    metric(scrape, "bingo_idle_timeouts_total"), metric(scrape, "bingo_pings_sent_total"));
+        } finally {
+            for (Socket socket : silent) socket.close();
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    /** One churn connection: every tenth goes silent after WELCOME, every tenth after its name. */
+    private static void churnOnce(int i, Queue<Socket> silent) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress("localhost", BingoServer.PORT), 10_000);
+            socket.setSoTimeout(10_000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()), 256);
+            if (!"WELCOME".equals(in.readLine())) throw new IOException("No WELCOME");
+            if (i % 10 == 0) {
+                silent.add(socket);
+                return;
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(("churn" + i + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (i % 10 == 1) {
+                silent.add(socket);
+                return;
+            }
+            // Seated once the prompt arrives; hanging up now should give the seat back
+            if (in.readLine() == null) throw new IOException("Closed before the prompt");
+            socket.close();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** A value from the server's /metrics, or -1 while it cannot be scraped. */
+    private static long metric(String url, String name) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                URI.create(url).toURL().openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(name + " ")) return Long.parseLong(line.substring(name.length() + 1));
+            }
+        } catch (IOException e) {
+            // not up yet
+        }
+        return -1;
+    }
+
+    private static long openFds(long pid) {
+        try (Stream<Path> fds = Files.list(Path.of("/proc", String.valueOf(pid), "fd"))) {
+            return fds.count();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /** A numeric field of /proc/PID/status (Linux only), or -1 when unavailable. */
+    private static long procStatus(long pid, String field) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith(field)) return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not on Linux
+        }
+        return -1;
+    }
+
+    private static List<String> javaCommand(String mainClass, String... args) {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), mainClass));
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    /** Waits until at least atLeast lines of the log (and at least one) contain text. */
+    private static void awaitLog(Path log, String text, int atLeast) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (Files.readAllLines(log).stream().filter(l -> l.contains(text)).count() < Math.max(1, atLeast)) {
+            if (System.nanoTime() > deadline) throw new IOException("Timed out waiting for '" + text + "' in " + log);
+            Thread.sleep(50);
+        }
+    }
+
+    /** A percentile from a LatencyHistogram summary in microseconds, as milliseconds. */
+    private static String millis(String summary, String percentile) {
+        for (String field : summary.split("\\s+")) {
+            if (field.startsWith(percentile + "=")) {
+                return String.format("%.1f", Long.parseLong(field.substring(percentile.length() + 1)) / 1e3);
+            }
+        }
+        return "?";
+    }
+
+    /** Peak resident set size of a process from /proc (Linux only), or -1 when unavailable. */
+    private static long peakRssMb(long pid) {
+        long peakKb = procStatus(pid, "VmHWM:");
+        return peakKb < 0 ? -1 : peakKb / 1024;
+    }
+
+    private static boolean allStarted(List<ReadyPlayer> players) {
+        synchronized (players) {
+            for (ReadyPlayer player : players) {
+                if (player.starts.get() == 0) return false;
+            }
+        }
+        return true;
+    }
+
+    private static int unanswered(List<FloodPlayer> players) {
+        int count = 0;
+        for (FloodPlayer player : players) {
+            if (player.answers.get() == 0) count++;
+        }
+        return count;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Records when its claim was answered; the first WIN: sent to any of them starts the flood. */
+    static final class FloodPlayer extends SinkPlayer {
+        private final CountDownLatch firstWin;
+        private final AtomicInteger winDraw;
+        final AtomicInteger winners = new AtomicInteger();
+        final AtomicInteger answers = new AtomicInteger();
+        volatile long claimedAt, winnerAt, prizeAt, invalidAt;
+
+        FloodPlayer(String name, BingoRoom room, CountDownLatch firstWin, AtomicInteger winDraw) {
+            super(name);
+            this.room = room;
+            this.firstWin = firstWin;
+            this.winDraw = winDraw;
+        }
+
+        @Override
+        protected boolean enqueue(byte[] line) {
+            String text = new String(line, StandardCharsets.UTF_8);
+            if (text.startsWith(BingoProtocol.WIN) && winDraw.compareAndSet(-1, room.draws().position())) {
+                firstWin.countDown();
+            } else if (text.startsWith("WINNER:")) {
+                winnerAt = System.nanoTime();
+                winners.incrementAndGet();
+            } else if (text.startsWith(BingoProtocol.PRIZE)) {
+                prizeAt = System.nanoTime();
+                answers.incrementAndGet();
+            } else if (text.startsWith("INVALID_BINGO")) {
+                invalidAt = System.nanoTime();
+                answers.incrementAndGet();
+            }
+            return super.enqueue(line);
+        }
+    }
+
+    /** Counts the GAME_START and CARD: lines it is sent. */
+    static final class ReadyPlayer extends SinkPlayer {
+        final AtomicInteger starts = new AtomicInteger();
+        final AtomicInteger cards = new AtomicInteger();
+
+        ReadyPlayer(String name) {
+            super(name);
+        }
+
+        @Override
+        protected boolean enqueue(byte[] line) {
+            String text = new String(line, StandardCharsets.UTF_8);
+            if (text.startsWith("GAME_START")) starts.incrementAndGet();
+            if (text.startsWith("CARD:")) cards.incrementAndGet();
+            return super.enqueue(line);
+        }
+    }
+
+    private static List<BingoCard> freshCopies(List<BingoCard> cards) {
+        List<BingoCard> copies = new ArrayList<>();
+        for (BingoCard card : cards) copies.add(BingoCard.fromProtocol(card.toProtocol()));
+        return copies;
+    }
+
+    private static void layoutTree(Container container) {
+        container.doLayout();
+        for (Component child : container.getComponents()) {
+            if (child instanceof Container) layoutTree((Container) child);
+        }
+    }
+
+    /** Journals one game as the server would; every hundredth is left unfinished. */
+    private static void appendGame(int room, int players) {
+        GameJournal.room(room, room);
+        for (int seat = 0; seat < players; seat++) {
+            GameJournal.join(room, seat, "player" + seat, "0123456789abcdef0123456789abcdef", 1);
+        }
+        for (int seat = 0; seat < players; seat++) GameJournal.ready(room, seat);
+        GameJournal.start(room);
+        DrawSequence draws = new DrawSequence(room);
+        for (int d = 0; d < 40; d++) GameJournal.draw(room, draws.next());
+        if (room % 100 == 0) return;
+        GameJournal.claim(room, 7, true);
+        GameJournal.winner(room, 7, 0, true);
+        GameJournal.end(room);
+    }
+
+    /** The rejection-sampling generator BingoCard used before CardGenerator. */
+    private static int[] legacyDeck(int cardCount) {
+        int[] out = new int[cardCount * CardStore.CELLS];
+        for (int card = 0; card < cardCount; card++) {
+            Random rand = new Random();
+            Set<Integer> used = new HashSet<>();
+            for (int cell = 0; cell < CardStore.CELLS; cell++) {
+                int num;
+                do {
+                    num = rand.nextInt(75) + 1;
+                } while (used.contains(num));
+                used.add(num);
+                out[card * CardStore.CELLS + cell] = num;
+            }
+            out[card * CardStore.CELLS + 12] = 0;
+        }
+        return out;
+    }
+
+    private static void reportRate(String label, int cards, long nanos, int[] deck) {
+        System.out.printf("%-34s %,12.0f cards/s (checksum %d)%n", label, cards / (nanos / 1e9), deck[deck.length - 1]);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static PrintStream silenceStdout() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return console;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /** In-memory player that only counts the lines and bytes queued to it. */
+    static class SinkPlayer extends BingoServer.Player {
+        static final LongAdder lines = new LongAdder();
+        static final LongAdder bytes = new LongAdder();
+
+        SinkPlayer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected boolean enqueue(byte[] line) {
+            lines.increment();
+            bytes.add(line.length);
+            return true;
+        }
+
+        @Override
+        int queueDepth() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        protected void abort() {
+        }
+    }
+}
@@ -0,0 +1,399 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Regression suite for the card, draw and broadcast hot paths, with results
+ * that can be saved and diffed across versions. It follows JMH's method
+ * using only the JDK: each benchmark runs in a fresh forked JVM, does
+ * warmup iterations, then timed iterations that each run batches of
+ * operations for a fixed time. It reports average time per operation with
+ * a 99.9% confidence interval.
+ *
+ *   java BingoBenchmarkSuite [filter] [--format=text|csv|json] [--out=file]
+ *                            [--warmup=3] [--iterations=5] [--time=500] [--forks=1]
+ *   java BingoBenchmarkSuite compare base.csv new.csv
+ *
+ * The filter is a substring of the benchmark name. CSV and JSON use JMH's
+ * result layout. --forks=0 runs everything in this JVM.
+ */
+public class BingoBenchmarkSuite {
+    // Consumed results so the JIT cannot discard the measured work
+    static volatile long sink;
+    // Players already in the server's lobby; broadcast params only ever grow it
+    private static int lobbySinks = 0;
+
+    private final int warmup;
+    private final int iterations;
+    private final long iterationNanos;
+
+    BingoBenchmarkSuite(int warmup, int iterations, long iterationMillis) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+    }
+
+    /** Performs n operations and returns the nanoseconds spent on them, excluding setup. */
+    interface Op {
+        long run(int n);
+    }
+
+    /** One benchmark at one parameter value; the factory does its setup. */
+    static final class Benchmark {
+        final String name;
+        final String params;
+        final Supplier<Op> factory;
+
+        Benchmark(String name, String params, Supplier<Op> factory) {
+            this.name = name;
+            this.params = params;
+            this.factory = factory;
+        }
+
+        String id() {
+            return params.isEmpty() ? name : name + ":" + params;
+        }
+    }
+
+    static final class Result {
+        final String name;
+        final String params;
+        final double[] samples; // ns/op per measured iteration
+
+        Result(String name, String params, double[] samples) {
+            this.name = name;
+            this.params = params;
+            this.samples = samples;
+        }
+
+        double score() {
+            double sum = 0;
+            for (double s : samples) sum += s;
+            return sum / samples.length;
+        }
+
+        /** Half-width of the 99.9% confidence interval, as JMH reports it. */
+        double error() {
+            int n = samples.length;
+            if (n < 2) return Double.NaN;
+            double mean = score(), squares = 0;
+            for (double s : samples) squares += (s - mean) * (s - mean);
+            return studentT999(n - 1) * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+        }
+    }
+
+    // Two-sided 99.9% Student's t quantiles for 1..10 degrees of freedom
+    private static final double[] T999 = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+
+    private static double studentT999(int df) {
+        if (df <= T999.length) return T999[df - 1];
+        if (df <= 30) return 3.65;
+        return 3.29;
+    }
+
+    static List<Benchmark> benchmarks() {
+        List<Benchmark> list = new ArrayList<>();
+        list.add(new Benchmark("card.markNumber", "cards=1", () -> {
+            BingoCard card = new BingoCard(CardGenerator.generate(1, 1, false, false));
+            return n -> {
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) card.markNumber(i % 75 + 1);
+                long nanos = System.nanoTime() - start;
+                sink += card.getMarkedMask();
+                return nanos;
+            };
+        }));
+        list.add(new Benchmark("card.checkBingo", "cards=1", () -> {
+            BingoCard[] cards = markedCards(64, 30);
+            return n -> {
+                int wins = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) if (cards[i & 63].checkBingo()) wins++;
+                long nanos = System.nanoTime() - start;
+                sink += wins;
+                return nanos;
+            };
+        }));
+        list.add(new Benchmark("pattern.matchAll", "cards=1", () -> {
+            BingoCard[] cards = markedCards(64, 30);
+            WinPattern[] patterns = WinPattern.all().toArray(new WinPattern[0]);
+            return n -> {
+                int wins = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    int mask = cards[i & 63].getMarkedMask();
+                    for (WinPattern pattern : patterns) if (pattern.matches(mask)) wins++;
+                }
+                long nanos = System.nanoTime() - start;
+                sink += wins;
+                return nanos;
+            };
+        }));
+        list.add(new Benchmark("card.markAndCheckDraw", "cards=10000", () -> {
+            BingoCard[] cards = markedCards(10_000, 0);
+            return n -> {
+                int wins = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    int number = i % 75 + 1;
+                    for (BingoCard card : cards) {
+                        card.markNumber(number);
+                        if (card.checkBingo()) wins++;
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                sink += wins;
+                return nanos;
+            };
+        }));
+        for (int cards : new int[] {1, 10_000}) {
+            list.add(new Benchmark("store.game", "cards=" + cards, () -> storeGame(cards)));
+        }
+        list.add(new Benchmark("generate.card", "cards=1", () -> {
+            CardGenerator generator = new CardGenerator(1, false);
+            int[] out = new int[CardGenerator.CELLS];
+            return n -> {
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) generator.next(out, 0);
+                long nanos = System.nanoTime() - start;
+                sink += out[0];
+                return nanos;
+            };
+        }));
+        list.add(new Benchmark("generate.deck", "cards=10000", () -> n -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) sink += CardGenerator.generate(10_000, i, false, false)[0];
+            return System.nanoTime() - start;
+        }));
+        for (int sinks : new int[] {1, 1_000, 10_000}) {
+            list.add(new Benchmark("server.broadcast", "sinks=" + sinks, () -> broadcast(sinks)));
+        }
+        return list;
+    }
+
+    private static BingoCard[] markedCards(int count, int drawn) {
+        int[] deck = CardGenerator.generate(count, 3, false, false);
+        DrawSequence draws = new DrawSequence(3);
+        int[] numbers = new int[drawn];
+        for (int d = 0; d < drawn; d++) numbers[d] = draws.next();
+        BingoCard[] cards = new BingoCard[count];
+        for (int c = 0; c < count; c++) {
+            cards[c] = new BingoCard(Arrays.copyOfRange(deck, c * CardGenerator.CELLS, (c + 1) * CardGenerator.CELLS));
+            for (int number : numbers) cards[c].markNumber(number);
+        }
+        return cards;
+    }
+
+    /** One op is a whole 75-draw game on a fresh CardStore; filling the store is untimed. */
+    private static Op storeGame(int cards) {
+        int[] deck = CardGenerator.generate(cards, 5, false, false);
+        DrawSequence draws = new DrawSequence(5);
+        int[] sequence = new int[DrawSequence.NUMBERS];
+        for (int d = 0; d < sequence.length; d++) sequence[d] = draws.next();
+        return n -> {
+            long nanos = 0;
+            for (int i = 0; i < n; i++) {
+                CardStore store = new CardStore(cards);
+                for (int c = 0; c < cards; c++) store.add(deck, c * CardGenerator.CELLS);
+                long start = System.nanoTime();
+                int winners = 0;
+                for (int number : sequence) winners += store.markNumber(number);
+                nanos += System.nanoTime() - start;
+                sink += winners;
+            }
+            return nanos;
+        };
+    }
+
+    /** BingoServer.broadcast() of one NUMBER to a lobby of in-memory players. */
+    private static Op broadcast(int sinks) {
+        for (; lobbySinks < sinks; lobbySinks++) {
+            BingoServer.joinLobby(new BingoBenchmark.SinkPlayer("sink" + lobbySinks));
+        }
+        return n -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) BingoServer.broadcast("NUMBER:" + (i % 75 + 1));
+            long nanos = System.nanoTime() - start;
+            sink += BingoBenchmark.SinkPlayer.lines.sum();
+            return nanos;
+        };
+    }
+
+    /** Warmup, then timed iterations; batch size doubles until one batch takes about 10 ms. */
+    Result measure(Benchmark benchmark) {
+        Op op = benchmark.factory.get();
+        int batch = 1;
+        while (op.run(batch) < 10_000_000 && batch < (1 << 30)) batch *= 2;
+
+        for (int w = 0; w < warmup; w++) iterate(op, batch);
+        double[] samples = new double[iterations];
+        for (int i = 0; i < iterations; i++) samples[i] = iterate(op, batch);
+        return new Result(benchmark.name, benchmark.params, samples);
+    }
+
+    /** One iteration: batches until the time budget is spent; returns ns/op. */
+    private double iterate(Op op, int batch) {
+        long nanos = 0, ops = 0;
+        while (nanos < iterationNanos) {
+            nanos += op.run(batch);
+            ops += batch;
+        }
+        return (double) nanos / ops;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("compare")) {
+            compare(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+        String filter = "";
+        for (String arg : args) {
+            if (!arg.startsWith("--")) filter = arg;
+        }
+        String format = BingoServer.optionValue(args, "--format", "text");
+        String outFile = BingoServer.optionValue(args, "--out", null);
+        int forks = Integer.parseInt(BingoServer.optionValue(args, "--forks", "1"));
+        String only = BingoServer.optionValue(args, "--only", null);
+        BingoBenchmarkSuite suite = new BingoBenchmarkSuite(
+                Integer.parseInt(BingoServer.optionValue(args, "--warmup", "3")),
+                Integer.parseInt(BingoServer.optionValue(args, "--iterations", "5")),
+                Long.parseLong(BingoServer.optionValue(args, "--time", "500")));
+
+        if (only != null) {
+            // Forked child: run one benchmark and hand its samples back on stdout
+            for (Benchmark benchmark : benchmarks()) {
+                if (benchmark.id().equals(only)) {
+                    Result result = suite.measure(benchmark);
+                    StringBuilder line = new StringBuilder("RESULT");
+                    for (double sample : result.samples) line.append(' ').append(sample);
+                    System.out.println(line);
+                }
+            }
+            return;
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks()) {
+            if (!benchmark.id().contains(filter)) continue;
+            System.err.println("# " + benchmark.id());
+            Result result = forks > 0 ? suite.fork(benchmark, args) : suite.measure(benchmark);
+            System.err.printf("  %.3f +- %.3f ns/op%n", result.score(), result.error());
+            results.add(result);
+        }
+
+        String report;
+        switch (format) {
+            case "csv": report = toCsv(results); break;
+            case "json": report = toJson(suite, forks, results); break;
+            default: report = toText(results); break;
+        }
+        if (outFile != null) {
+            Files.write(Paths.get(outFile), report.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(report);
+        }
+    }
+
+    /** Runs the benchmark in a fresh JVM so earlier benchmarks cannot skew its JIT profile. */
+    private Result fork(Benchmark benchmark, String[] args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), BingoBenchmarkSuite.class.getName(),
+                "--only=" + benchmark.id(),
+                "--warmup=" + warmup, "--iterations=" + iterations, "--time=" + iterationNanos / 1_000_000));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        double[] samples = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith("RESULT ")) continue;
+                String[] parts = line.substring(7).split(" ");
+                samples = new double[parts.length];
+                for (int i = 0; i < parts.length; i++) samples[i] = Double.parseDouble(parts[i]);
+            }
+        }
+        if (process.waitFor() != 0 || samples == null) {
+            throw new IOException("Forked run of " + benchmark.id() + " failed");
+        }
+        return new Result(benchmark.name, benchmark.params, samples);
+    }
+
+    private static String toText(List<Result> results) {
+        StringBuilder out = new StringBuilder(String.format("%-24s %-12s %4s %14s %12s  %s%n",
+                "Benchmark", "Params", "Cnt", "Score", "Error", "Units"));
+        for (Result r : results) {
+            out.append(String.format("%-24s %-12s %4d %14.3f +- %10.3f  ns/op%n",
+                    r.name, r.params, r.samples.length, r.score(), r.error()));
+        }
+        return out.toString();
+    }
+
+    private static String toCsv(List<Result> results) {
+        StringBuilder out = new StringBuilder(
+                "\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\",\"Score Error (99.9%)\",\"Unit\",\"Params\"\n");
+        for (Result r : results) {
+            out.append(String.format(Locale.ROOT, "\"%s\",\"avgt\",1,%d,%.6f,%.6f,\"ns/op\",\"%s\"%n",
+                    r.name, r.samples.length, r.score(), r.error(), r.params));
+        }
+        return out.toString();
+    }
+
+    private static String toJson(BingoBenchmarkSuite suite, int forks, List<Result> results) {
+        StringBuilder out = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            StringBuilder params = new StringBuilder();
+            if (!r.params.isEmpty()) {
+                String[] kv = r.params.split("=", 2);
+                params.append("\"").append(kv[0]).append("\": \"").append(kv[1]).append("\"");
+            }
+            StringBuilder raw = new StringBuilder();
+            for (double s : r.samples) raw.append(raw.length() == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.6f", s));
+            out.append(String.format(Locale.ROOT,
+                    "  {\"benchmark\": \"%s\", \"mode\": \"avgt\", \"threads\": 1, \"forks\": %d,"
+                            + " \"jdkVersion\": \"%s\", \"warmupIterations\": %d, \"measurementIterations\": %d,"
+                            + " \"measurementTime\": \"%d ms\", \"params\": {%s},"
+                            + " \"primaryMetric\": {\"score\": %.6f, \"scoreError\": %.6f, \"scoreUnit\": \"ns/op\","
+                            + " \"rawData\": [[%s]]}}%s%n",
+                    r.name, forks, System.getProperty("java.version"), suite.warmup, suite.iterations,
+                    suite.iterationNanos / 1_000_000, params, r.score(), r.error(), raw,
+                    i < results.size() - 1 ? "," : ""));
+        }
+        return out.append("]\n").toString();
+    }
+
+    /** Prints each benchmark's score in both CSV files and the change from base to new. */
+    static void compare(Path basePath, Path newPath) throws IOException {
+        Map<String, double[]> base = readCsv(basePath);
+        Map<String, double[]> current = readCsv(newPath);
+        System.out.printf("%-38s %14s %14s %9s%n", "Benchmark", "base ns/op", "new ns/op", "change");
+        for (Map.Entry<String, double[]> entry : current.entrySet()) {
+            double[] now = entry.getValue();
+            double[] before = base.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-38s %14s %14.3f %9s%n", entry.getKey(), "-", now[0], "new");
+                continue;
+            }
+            double change = (now[0] - before[0]) / before[0] * 100;
+            // Flag changes larger than both runs' confidence intervals combined
+            boolean significant = Math.abs(now[0] - before[0]) > now[1] + before[1];
+            System.out.printf("%-38s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), before[0], now[0], change,
+                    significant ? " *" : "");
+        }
+    }
+
+    /** Benchmark:params -> {score, error} from a CSV written with --format=csv. */
+    private static Map<String, double[]> readCsv(Path path) throws IOException {
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(path);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] cols = line.split(",");
+            String name = cols[0].replace("\"", "") + ":" + cols[7].replace("\"", "");
+            double error = cols[5].equals("NaN") ? 0 : Double.parseDouble(cols[5]);
+            scores.put(name, new double[] {Double.parseDouble(cols[4]), error});
+        }
+        return scores;
+    }
+}
@@ -1,57 +1,87 @@
-import java.util.*;
-
 public class BingoCard {
-    private final int SIZE = 5;
+    private static final int SIZE = 5;
+    private static final int FREE_BIT = 1 << (SIZE / 2 * SIZE + SIZE / 2);
+
+    /** The 12 winning lines (5 rows, 5 columns, 2 diagonals) as 25-bit cell masks. */
+    static final int[] WIN_MASKS = buildWinMasks();
+
     private int[][] card = new int[SIZE][SIZE];
     private boolean[][] marked = new boolean[SIZE][SIZE];
+    // Bit (row * 5 + col) is set when that cell is marked
+    private int markedMask;
 
     public BingoCard() {
         generateCard();
     }
 
+    /** Builds a card from 25 row-major numbers, 0 for the free centre. */
+    public BingoCard(int[] numbers) {
+        for (int i = 0; i < SIZE; i++)
+            for (int j = 0; j < SIZE; j++)
+                card[i][j] = numbers[i * SIZE + j];
+        card[2][2] = 0;
+        marked[2][2] = true;
+        markedMask = FREE_BIT;
+    }
+
     private void generateCard() {
-        Random rand = new Random();
-        Set<Integer> used = new HashSet<>();
+        int[] numbers = new int[SIZE * SIZE];
+        CardGenerator.current().next(numbers, 0);
         for (int i = 0; i < SIZE; i++) {
             for (int j = 0; j < SIZE; j++) {
-                int num;
-                do {
-                    num = rand.nextInt(75) + 1;
-                } while (used.contains(num));
-                used.add(num);
-                card[i][j] = num;
+                card[i][j] = numbers[i * SIZE + j];
                 marked[i][j] = false;
             }
         }
         card[2][2] = 0; // Free space in center
         marked[2][2] = true;
+        markedMask = FREE_BIT;
+    }
+
+    private static int[] buildWinMasks() {
+        int[] masks = new int[2 * SIZE + 2];
+        int diag1 = 0, diag2 = 0;
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                masks[i] |= 1 << (i * SIZE + j);        // row i
+                masks[SIZE + i] |= 1 << (j * SIZE + i); // column i
+            }
+            diag1 |= 1 << (i * SIZE + i);
+            diag2 |= 1 << (i * SIZE + SIZE - i - 1);
+        }
+        masks[2 * SIZE] = diag1;
+        masks[2 * SIZE + 1] = diag2;
+        return masks;
     }
 
     public void markNumber(int number) {
         for (int i = 0; i < SIZE; i++)
             for (int j = 0; j < SIZE; j++)
-                if (card[i][j] == number)
+                if (card[i][j] == number) {
                     marked[i][j] = true;
+                    markedMask |= 1 << (i * SIZE + j);
+                }
     }
 
     public boolean checkBingo() {
-        for (int i = 0; i < SIZE; i++) {
-            // Check rows
-            boolean row = true, col = true;
-            for (int j = 0; j < SIZE; j++) {
-                row &= marked[i][j];
-                col &= marked[j][i];
-            }
-            if (row || col) return true;
-        }
+        return hasBingo(markedMask);
+    }
 
-        // Check diagonals
-        boolean diag1 = true, diag2 = true;
-        for (int i = 0; i < SIZE; i++) {
-            diag1 &= marked[i][i];
-            diag2 &= marked[i][SIZE - i - 1];
+    /** Whether the marked cells complete the given pattern; checkBingo() is matches(WinPattern.LINE). */
+    public boolean matches(WinPattern pattern) {
+        return pattern.matches(markedMask);
+    }
+
+    /** True if the marked-cell mask covers at least one winning line. */
+    static boolean hasBingo(int mask) {
+        for (int line : WIN_MASKS) {
+            if ((mask & line) == line) return true;
         }
-        return diag1 || diag2;
+        return false;
+    }
+
+    public int getMarkedMask() {
+        return markedMask;
     }
 
     public void printCard() {
@@ -64,6 +94,34 @@ public class BingoCard {
             System.out.println();
         }
     }
+
+    // --- Wire format for server-issued cards: "CARD:n1,n2,...,n25" ---
+    public String toProtocol() {
+        int[] numbers = new int[SIZE * SIZE];
+        for (int i = 0; i < SIZE; i++)
+            for (int j = 0; j < SIZE; j++)
+                numbers[i * SIZE + j] = card[i][j];
+        return toProtocol(numbers);
+    }
+
+    static String toProtocol(int[] numbers) {
+        StringBuilder sb = new StringBuilder("CARD:");
+        for (int k = 0; k < numbers.length; k++) {
+            if (k > 0) sb.append(',');
+            sb.append(numbers[k]);
+        }
+        return sb.toString();
+    }
+
+    public static BingoCard fromProtocol(String line) {
+        String[] parts = line.substring(line.indexOf(':') + 1).split(",");
+        int[] numbers = new int[SIZE * SIZE];
+        for (int k = 0; k < numbers.length; k++) {
+            numbers[k] = Integer.parseInt(parts[k].trim());
+        }
+        return new BingoCard(numbers);
+    }
+
         // --- Getters for GUI ---
     public int[][] getCardNumbers() {
         return card;
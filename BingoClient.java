@@ -1,50 +1,133 @@
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class BingoClient {
     public static void main(String[] args) throws IOException {
+        // --binary asks the server for compact frames instead of text lines
+        boolean binary = Arrays.asList(args).contains("--binary");
+        // --resume=TOKEN takes back a dropped seat; --spectate watches without a card
+        String resume = BingoServer.optionValue(args, "--resume", null);
+        boolean spectate = Arrays.asList(args).contains("--spectate");
+        // --cards=N plays N cards; --autodaub lets the server mark them and say when one wins
+        int cardCount = Integer.parseInt(BingoServer.optionValue(args, "--cards", "1"));
+        boolean autoDaub = Arrays.asList(args).contains("--autodaub");
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        // Asked before connecting, so a slow typist is not cut off by the server's handshake timeout
+        String name = null;
+        if (resume == null && !spectate) {
+            System.out.print("Enter your name: ");
+            name = console.readLine();
+        }
         Socket socket = new Socket("localhost", 12345);
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        BingoProtocol.Reader in = new BingoProtocol.Reader(socket.getInputStream());
         PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
-
-        BingoCard card = new BingoCard();
 
         if (in.readLine().equals("WELCOME")) {
-            System.out.print("Enter your name: ");
-            String name = console.readLine();
-            out.println(name);
+            if (binary) in.requestBinary(out);
+            if (cardCount > 1 && resume == null && !spectate) {
+                System.out.println("Playing " + in.requestCards(out, cardCount) + " cards.");
+            }
+            if (autoDaub) in.requestAutoDaub(out);
+            if (resume != null) {
+                out.println(BingoProtocol.RESUME + resume);
+            } else if (spectate) {
+                out.println(BingoProtocol.SPECTATE);
+            } else {
+                out.println(name);
+            }
         }
 
-        // Wait for ready prompt
-        System.out.println(in.readLine());
-        System.out.print("Press Enter to send 'ready': ");
-        console.readLine();
-        out.println("ready");
-
-        System.out.println("Waiting for game to start...");
-
+        // Wait for ready prompt, or RESUMED:/SPECTATING: (INVALID_SESSION/NO_GAME if refused)
+        in.next();
+        String reply = in.text();
+        System.out.println(reply);
+        if (reply.equals("INVALID_SESSION") || reply.equals("NO_GAME")) {
+            socket.close();
+            return;
+        }
+        // Listening from here on, so PINGs are answered while the player reads the ready prompt
         new Thread(() -> {
             try {
-                String line;
                 boolean gameStarted = false;
+                List<BingoCard> cards = new ArrayList<>(); // the server-issued cards
+                // With AUTODAUB the server marks the cards; the client only answers WIN:
+                boolean daub = !spectate && !autoDaub;
+                WinPattern pattern = WinPattern.LINE; // until the server names another
 
-                while ((line = in.readLine()) != null) {
-                    if (line.startsWith("GAME_START")) {
-                        System.out.println("Game started!");
-                        gameStarted = true;
-                        card.printCard();
-                    } else if (line.startsWith("NUMBER:") && gameStarted) {
-                        int number = Integer.parseInt(line.split(":")[1]);
+                while (in.next()) {
+                    if (in.opcode() == BingoProtocol.OP_NUMBER) {
+                        if (!gameStarted) continue;
+                        int number = in.number();
                         System.out.println("Number drawn: " + number);
-                        card.markNumber(number);
-                        card.printCard();
+                        if (!daub) continue;
+                        for (BingoCard card : cards) {
+                            card.markNumber(number);
+                            card.printCard();
+                        }
 
-                        if (card.checkBingo()) {
+                        if (anyBingo(cards, pattern)) {
                             System.out.println("You got BINGO!!!");
                             out.println("BINGO");
                         }
+                        continue;
+                    }
 
+                    String line = in.text();
+                    if (line.equals(BingoProtocol.PING)) {
+                        out.println(BingoProtocol.PONG);
+                    } else if (line.startsWith("CARD:")) {
+                        cards.add(BingoCard.fromProtocol(line));
+                    } else if (line.startsWith(BingoProtocol.NEAR)) {
+                        System.out.println("Card " + line.substring(BingoProtocol.NEAR.length())
+                                + " is one number away!");
+                    } else if (line.startsWith(BingoProtocol.WIN)) {
+                        System.out.println("Card " + line.substring(BingoProtocol.WIN.length()) + " got BINGO!!!");
+                        out.println("BINGO");
+                    } else if (line.startsWith(BingoProtocol.SESSION)) {
+                        System.out.println("To reconnect: --resume=" + line.substring(BingoProtocol.SESSION.length()));
+                    } else if (line.startsWith(BingoProtocol.DRAWN)) {
+                        // Rejoined a running game: catch up on everything drawn so far
+                        boolean[] drawn = BingoProtocol.parseDrawn(line);
+                        gameStarted = true;
+                        StringBuilder soFar = new StringBuilder("Drawn so far:");
+                        for (int n = 1; n < drawn.length; n++) {
+                            if (!drawn[n]) continue;
+                            soFar.append(' ').append(n);
+                            if (daub) {
+                                for (BingoCard card : cards) card.markNumber(n);
+                            }
+                        }
+                        System.out.println(soFar);
+                        if (spectate) continue;
+                        for (BingoCard card : cards) card.printCard();
+                        if (anyBingo(cards, pattern)) out.println("BINGO");
+                    } else if (line.startsWith(BingoProtocol.PATTERN)) {
+                        pattern = WinPattern.parse(line.substring(BingoProtocol.PATTERN.length()));
+                        System.out.println("Playing for: " + pattern);
+                        // A new stage may already be complete on a card
+                        if (daub && gameStarted && anyBingo(cards, pattern)) out.println("BINGO");
+                    } else if (line.startsWith(BingoProtocol.STAGE_WINNER)) {
+                        String[] stage = line.substring(BingoProtocol.STAGE_WINNER.length()).split(":", 2);
+                        System.out.println(stage[1] + " won the " + stage[0] + " stage!");
+                    } else if (line.startsWith(BingoProtocol.PRIZE)) {
+                        String[] prize = line.substring(BingoProtocol.PRIZE.length()).split(":");
+                        System.out.println(prize[1].equals("1") ? "You won " + prize[2] + " points!"
+                                : "You share the win, placed " + prize[0] + " of " + prize[1] + ": "
+                                + prize[2] + " points!");
+                    } else if (line.startsWith(BingoProtocol.STARTING_IN)) {
+                        System.out.println("Game starts in "
+                                + line.substring(BingoProtocol.STARTING_IN.length()) + " s.");
+                    } else if (line.equals(BingoProtocol.START_CANCELLED)) {
+                        System.out.println("Countdown cancelled; waiting for players.");
+                    } else if (line.startsWith("GAME_START")) {
+                        System.out.println("Game started!");
+                        gameStarted = true;
+                        for (BingoCard card : cards) card.printCard();
+                    } else if (line.startsWith("INVALID_BINGO")) {
+                        System.out.println("The server rejected your BINGO claim.");
                     } else if (line.startsWith("WINNER:")) {
                         String winner = line.split(":")[1];
                         System.out.println(winner + " has won the game!");
@@ -55,5 +138,21 @@ public class BingoClient {
                 System.out.println("Disconnected.");
             }
         }).start();
+
+        if (resume != null) {
+            out.println("ready"); // ignored if the game is already running
+        } else if (!spectate) {
+            System.out.print("Press Enter to send 'ready': ");
+            console.readLine();
+            out.println("ready");
+        }
+        System.out.println("Waiting for game to start...");
+    }
+
+    private static boolean anyBingo(List<BingoCard> cards, WinPattern pattern) {
+        for (BingoCard card : cards) {
+            if (card.matches(pattern)) return true;
+        }
+        return false;
     }
 }
@@ -3,6 +3,11 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.*;
 
 public class BingoGUI implements ActionListener {
@@ -18,19 +23,27 @@ public class BingoGUI implements ActionListener {
 
     // Game screen components
     private JPanel gamePanel;
-    private JButton[][] cardButtons; // 5x5 grid for the bingo card
+    private CardSheet cardSheet; // every card this player holds, custom painted
+    private JScrollPane cardScroll;
     private JLabel calledNumberLabel; // To display numbers called by server
     private JLabel bingoStatusLabel;  // For "BINGO!" or winner messages
 
-    private BingoCard bingoCard;
+    private final List<BingoCard> issuedCards = new ArrayList<>(); // CARD: lines received before GAME_START
+    // Server messages waiting for the EDT; one drain task handles a whole burst
+    private final Queue<Inbound> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+    private boolean gameOver = false; // EDT only
+    private String prize; // from PRIZE:, until the STAGE_WINNER: or WINNER: it came with; EDT only
     private Socket socket;
-    private BufferedReader in;
+    private BingoProtocol.Reader in;
     private PrintWriter out;
     private String playerName;
+    private final boolean binary; // negotiate compact binary frames with the server
+    private final int cardCount;  // cards to ask the server for
 
-    private final int CARD_SIZE = 5;
-
-    public BingoGUI() {
+    public BingoGUI(boolean binary, int cardCount) {
+        this.binary = binary;
+        this.cardCount = cardCount;
         frame = new JFrame("Bingo Game Client");
         cardLayout = new CardLayout();
         mainPanel = new JPanel(cardLayout);
@@ -76,19 +89,9 @@ public class BingoGUI implements ActionListener {
         gamePanel = new JPanel(new BorderLayout(10, 10));
         gamePanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-        JPanel cardDisplayPanel = new JPanel(new GridLayout(CARD_SIZE, CARD_SIZE, 5, 5));
-        cardDisplayPanel.setBorder(BorderFactory.createTitledBorder("Your Bingo Card"));
-        cardButtons = new JButton[CARD_SIZE][CARD_SIZE];
-        Font cardFont = new Font("Arial", Font.BOLD, 20);
-        for (int i = 0; i < CARD_SIZE; i++) {
-            for (int j = 0; j < CARD_SIZE; j++) {
-                cardButtons[i][j] = new JButton(""); // Placeholder text
-                cardButtons[i][j].setFont(cardFont);
-                cardButtons[i][j].setPreferredSize(new Dimension(60, 60));
-                cardButtons[i][j].setEnabled(false); // Card numbers are displayed, not clicked by user
-                cardDisplayPanel.add(cardButtons[i][j]);
-            }
-        }
+        cardSheet = new CardSheet();
+        cardScroll = new JScrollPane(cardSheet); // scrolls when a sheet outgrows the screen
+        cardScroll.setBorder(BorderFactory.createTitledBorder("Your Bingo Card"));
 
         calledNumberLabel = new JLabel("Waiting for game to start...", SwingConstants.CENTER);
         calledNumberLabel.setFont(new Font("Arial", Font.BOLD, 22));
@@ -102,7 +105,7 @@ public class BingoGUI implements ActionListener {
         topPanel.add(bingoStatusLabel, BorderLayout.SOUTH);
 
         gamePanel.add(topPanel, BorderLayout.NORTH);
-        gamePanel.add(cardDisplayPanel, BorderLayout.CENTER);
+        gamePanel.add(cardScroll, BorderLayout.CENTER);
     }
 
     @Override
@@ -123,20 +126,21 @@ public class BingoGUI implements ActionListener {
     private void connectAndPrepareGame() {
         try {
             socket = new Socket("localhost", 12345); // Ensure BingoServer is running
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            in = new BingoProtocol.Reader(socket.getInputStream());
             out = new PrintWriter(socket.getOutputStream(), true);
 
             String serverResponse = in.readLine(); // Expect "WELCOME" or "GAME_IN_PROGRESS"
             if ("WELCOME".equals(serverResponse)) {
+                if (binary) in.requestBinary(out);
+                if (cardCount > 1) in.requestCards(out, cardCount);
                 statusLabel.setText("Connected! Sending name: " + playerName);
                 out.println(playerName); // Send player name
 
-                serverResponse = in.readLine(); // Expect "Type 'ready' to start..."
+                in.next(); // Expect "Type 'ready' to start..."
+                serverResponse = in.text();
                 statusLabel.setText("Server: " + serverResponse + " Sending 'ready'...");
                 out.println("ready"); // Confirm readiness
 
-                this.bingoCard = new BingoCard(); // Player generates their card now
-
                 cardLayout.show(mainPanel, "GAME");
                 frame.setTitle("Bingo Game - " + playerName); // Set window title
                 frame.pack();
@@ -167,97 +171,42 @@ public class BingoGUI implements ActionListener {
         }
     }
     
+    /** Shows the cards issued so far; a sheet of several gets a compact grid. */
     private void initializeCardGUI() {
-        if (bingoCard == null) {
-             System.err.println("Error: BingoCard is null during GUI initialization.");
+        if (issuedCards.isEmpty()) {
+             System.err.println("Error: no CARD: received before GAME_START.");
              calledNumberLabel.setText("Error: Card not generated.");
              return;
         }
-        int[][] numbers = bingoCard.getCardNumbers();
-        for (int i = 0; i < CARD_SIZE; i++) {
-            for (int j = 0; j < CARD_SIZE; j++) {
-                if (i == CARD_SIZE / 2 && j == CARD_SIZE / 2) {
-                    cardButtons[i][j].setText("FREE");
-                } else {
-                    cardButtons[i][j].setText(String.valueOf(numbers[i][j]));
-                }
-            }
-        }
-        updateCardGUI(); // Apply initial styling (e.g., free space marked)
+        cardSheet.setCards(issuedCards);
+        updateSheetTitle();
+        frame.pack();
     }
 
-    private void updateCardGUI() {
-        if (bingoCard == null) return;
-
-        boolean[][] markedStatus = bingoCard.getMarkedStatus();
-        for (int i = 0; i < CARD_SIZE; i++) {
-            for (int j = 0; j < CARD_SIZE; j++) {
-                if (markedStatus[i][j]) {
-                    if (i == CARD_SIZE / 2 && j == CARD_SIZE / 2) { // Free space
-                        cardButtons[i][j].setBackground(Color.CYAN);
-                        cardButtons[i][j].setForeground(Color.BLACK);
-                    } else { // Marked number
-                        cardButtons[i][j].setBackground(Color.GREEN);
-                        cardButtons[i][j].setForeground(Color.BLACK);
-                    }
-                } else { // Unmarked number
-                    cardButtons[i][j].setBackground(UIManager.getColor("Button.background"));
-                    cardButtons[i][j].setForeground(UIManager.getColor("Button.foreground"));
-                }
-            }
-        }
+    /** Names the cards and, when it is not the usual line, the pattern being played. */
+    private void updateSheetTitle() {
+        String title = issuedCards.size() == 1 ? "Your Bingo Card" : "Your " + issuedCards.size() + " Bingo Cards";
+        if (cardSheet.getPattern() != WinPattern.LINE) title += " - playing for " + cardSheet.getPattern();
+        cardScroll.setBorder(BorderFactory.createTitledBorder(title));
     }
 
     private void listenToServer() {
         try {
-            String serverMessage;
-            while ((serverMessage = in.readLine()) != null && !socket.isClosed()) {
-                final String finalMessage = serverMessage;
-                SwingUtilities.invokeLater(() -> { // All GUI updates must be on the Event Dispatch Thread
-                    if (finalMessage.startsWith("GAME_START")) {
-                        initializeCardGUI(); // Populate the card display now that game is starting
-                        calledNumberLabel.setText("Game Started! Good Luck, " + playerName + "!");
-                        bingoStatusLabel.setText(" "); // Clear previous status
-                    } else if (finalMessage.startsWith("NUMBER:")) {
-                        if (bingoCard == null) { // Should have been created and GUI initialized
-                             System.err.println("Received NUMBER: but card not ready.");
-                             return;
-                        }
-                        try {
-                            int number = Integer.parseInt(finalMessage.split(":")[1]);
-                            calledNumberLabel.setText("Number Called: " + number);
-                            bingoCard.markNumber(number);
-                            updateCardGUI(); // Visually mark the number
-
-                            if (bingoCard.checkBingo()) {
-                                bingoStatusLabel.setText("BINGO!!!");
-                                bingoStatusLabel.setForeground(Color.ORANGE);
-                                out.println("BINGO"); // Announce BINGO to server
-                                // Client will wait for server's WINNER message to confirm.
-                            }
-                        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
-                            System.err.println("Error parsing number from server: " + finalMessage);
-                        }
-                    } else if (finalMessage.startsWith("WINNER:")) {
-                        String winnerName = finalMessage.split(":")[1];
-                        calledNumberLabel.setText("Game Over!");
-                        if (winnerName.equals(playerName) && bingoCard.checkBingo()) {
-                            bingoStatusLabel.setText("You are the WINNER! Congratulations!");
-                            bingoStatusLabel.setForeground(Color.MAGENTA);
-                        } else {
-                            bingoStatusLabel.setText(winnerName + " has won the game!");
-                            bingoStatusLabel.setForeground(Color.RED);
-                        }
-                        // Server will likely close connections. Client can also initiate cleanup.
-                        endGameCleanup("Winner declared: " + winnerName);
-                        JOptionPane.showMessageDialog(frame, winnerName + " has won the game!", "Game Over", JOptionPane.INFORMATION_MESSAGE);
-                        // Disable further actions or prepare for a new game if server supports it (current server doesn't without restart)
-                        // For now, the game ends here for this client instance.
-                        return; // Exit listener thread processing
-                    } else {
-                        System.out.println("Server message: " + finalMessage); // Log other messages
+            while (in.next() && !socket.isClosed()) {
+                if (in.opcode() == BingoProtocol.OP_NUMBER) {
+                    // Queued as read, so a number never becomes a String in either protocol
+                    inbox.add(new Inbound(BingoProtocol.OP_NUMBER, in.number(), null));
+                } else {
+                    String message = in.text();
+                    // Answered here rather than on the EDT, so a busy UI never looks like a dead connection
+                    if (message.equals(BingoProtocol.PING)) {
+                        out.println(BingoProtocol.PONG);
+                        continue;
                     }
-                });
+                    inbox.add(new Inbound(BingoProtocol.OP_TEXT, 0, message));
+                }
+                // Only the first line of a burst posts a task; the rest ride along with it
+                if (drainQueued.compareAndSet(false, true)) SwingUtilities.invokeLater(this::drainInbox);
             }
         } catch (SocketException se) {
             // This often happens when the server closes the connection (e.g., game ends, client removed)
@@ -280,10 +229,113 @@ public class BingoGUI implements ActionListener {
         }
     }
 
+    /** A server message for the EDT: a drawn number (OP_NUMBER) or any other line (OP_TEXT). */
+    private static final class Inbound {
+        final int opcode;
+        final int number;
+        final String text;
+
+        Inbound(int opcode, int number, String text) {
+            this.opcode = opcode;
+            this.number = number;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Handles every message that arrived since the last drain in one EDT task.
+     * The cells a number marks are repainted individually and the labels
+     * are set once per burst, so a fast draw rate cannot flood the EDT.
+     */
+    private void drainInbox() {
+        drainQueued.set(false);
+        int lastNumber = 0;
+        boolean bingo = false;
+        Inbound message;
+        while (!gameOver && (message = inbox.poll()) != null) {
+            if (message.opcode == BingoProtocol.OP_NUMBER) {
+                if (issuedCards.isEmpty()) { // Should have been created and GUI initialized
+                     System.err.println("Received NUMBER: but card not ready.");
+                     continue;
+                }
+                lastNumber = message.number;
+                bingo |= cardSheet.mark(lastNumber); // Visually mark the number
+            } else if (message.text.startsWith(BingoProtocol.DRAWN)) {
+                if (cardSheet.getCards().isEmpty()) initializeCardGUI(); // rejoined a running game
+                boolean[] drawn = BingoProtocol.parseDrawn(message.text);
+                for (int n = 1; n < drawn.length; n++) {
+                    if (drawn[n]) bingo |= cardSheet.mark(n);
+                }
+            } else {
+                handleMessage(message.text);
+            }
+        }
+        if (lastNumber != 0) calledNumberLabel.setText("Number Called: " + lastNumber);
+        if (bingo && !gameOver) {
+            bingoStatusLabel.setText("BINGO!!!");
+            bingoStatusLabel.setForeground(Color.ORANGE);
+            out.println("BINGO"); // Announce BINGO to server
+            // Client will wait for server's WINNER message to confirm.
+        }
+    }
+
+    private void handleMessage(String message) {
+        if (message.startsWith("CARD:")) {
+            issuedCards.add(BingoCard.fromProtocol(message)); // Server-issued card(s)
+        } else if (message.startsWith(BingoProtocol.STARTING_IN)) {
+            calledNumberLabel.setText("Game starts in " + message.substring(BingoProtocol.STARTING_IN.length()) + " s");
+        } else if (message.equals(BingoProtocol.START_CANCELLED)) {
+            calledNumberLabel.setText("Countdown cancelled, waiting for players...");
+        } else if (message.startsWith(BingoProtocol.PATTERN)) {
+            boolean bingo = cardSheet.setPattern(WinPattern.parse(message.substring(BingoProtocol.PATTERN.length())));
+            if (!issuedCards.isEmpty()) updateSheetTitle();
+            if (bingo && !gameOver) {
+                // A card already completes the new stage's pattern
+                bingoStatusLabel.setText("BINGO!!!");
+                bingoStatusLabel.setForeground(Color.ORANGE);
+                out.println("BINGO");
+            }
+        } else if (message.startsWith(BingoProtocol.PRIZE)) {
+            String[] share = message.substring(BingoProtocol.PRIZE.length()).split(":");
+            prize = share[1].equals("1") ? share[2] + " points"
+                    : share[2] + " points, placed " + share[0] + " of " + share[1] + " co-winners";
+        } else if (message.startsWith(BingoProtocol.STAGE_WINNER)) {
+            String[] stage = message.substring(BingoProtocol.STAGE_WINNER.length()).split(":", 2);
+            bingoStatusLabel.setText(prize != null ? "You won the " + stage[0] + " stage (" + prize + ")! Play on."
+                    : stage[1] + " won the " + stage[0] + " stage.");
+            bingoStatusLabel.setForeground(Color.BLUE);
+            prize = null;
+        } else if (message.startsWith("GAME_START")) {
+            initializeCardGUI(); // Populate the card display now that game is starting
+            calledNumberLabel.setText("Game Started! Good Luck, " + playerName + "!");
+            bingoStatusLabel.setText(" "); // Clear previous status
+        } else if (message.startsWith("INVALID_BINGO")) {
+            bingoStatusLabel.setText("BINGO claim rejected by server.");
+            bingoStatusLabel.setForeground(Color.RED);
+        } else if (message.startsWith("WINNER:")) {
+            String winnerName = message.split(":")[1];
+            gameOver = true;
+            calledNumberLabel.setText("Game Over!");
+            if (prize != null) {
+                bingoStatusLabel.setText("You are a WINNER (" + prize + ")! Congratulations!");
+                bingoStatusLabel.setForeground(Color.MAGENTA);
+            } else {
+                bingoStatusLabel.setText(winnerName + " has won the game!");
+                bingoStatusLabel.setForeground(Color.RED);
+            }
+            // Server will likely close connections. Client can also initiate cleanup.
+            endGameCleanup("Winner declared: " + winnerName);
+            JOptionPane.showMessageDialog(frame, winnerName + " has won the game!", "Game Over", JOptionPane.INFORMATION_MESSAGE);
+            // Disable further actions or prepare for a new game if server supports it (current server doesn't without restart)
+            // For now, the game ends here for this client instance.
+        } else {
+            System.out.println("Server message: " + message); // Log other messages
+        }
+    }
+
     private void endGameCleanup(String reason) {
         System.out.println("Cleaning up game resources: " + reason);
         try {
-            if (in != null) in.close();
             if (out != null) out.close();
             if (socket != null && !socket.isClosed()) socket.close();
         } catch (IOException ex) {
@@ -306,6 +358,8 @@ public class BingoGUI implements ActionListener {
         } catch (Exception e) {
             System.err.println("Couldn't set system look and feel.");
         }
-        SwingUtilities.invokeLater(BingoGUI::new);
+        boolean binary = java.util.Arrays.asList(args).contains("--binary");
+        int cards = Integer.parseInt(BingoServer.optionValue(args, "--cards", "1")); // e.g. --cards=24
+        SwingUtilities.invokeLater(() -> new BingoGUI(binary, cards));
     }
 }
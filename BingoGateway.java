@@ -0,0 +1,581 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Front door for several BingoServer shard processes, so one game can hold
+ * more players than a single JVM serves:
+ *
+ *   java BingoGateway [--port=12345] [--control=12400] [--interval=MS] [--seed=S] [--start=...]
+ *                     [--patterns=...] [--claim-window=MS] [--prize=POINTS]
+ *   java BingoServer --port=12346 --shard-of=localhost:12400     (one per shard)
+ *
+ * Clients connect to the gateway exactly as they would to a server. Each
+ * connection is relayed byte for byte to the shard with the fewest
+ * connections; a RESUME:token goes back to the shard that issued it.
+ *
+ * The gateway is the one authority for every game. All shards open the
+ * same game with the same seed, so they agree on the draw order. Only the
+ * gateway applies the start policy (to the sum of every shard's lobby
+ * counts) and draws on its fixed-rate clock; each shard checks a number
+ * against its own seeded order before marking and broadcasting it.
+ * Shards check claims against their own cards and forward the valid ones,
+ * each with the draw its card completed on. The gateway stops drawing at
+ * the first and keeps taking claims from other shards for --claim-window
+ * ms (100 by default). The claims whose cards completed on the earliest
+ * draw share the prize: each co-winner's shard is told its rank and share,
+ * and the first to arrive is announced. Games play the gateway's --patterns
+ * stages, sent to shards with OPEN; after a stage other than the last is
+ * won, drawing resumes for the next one.
+ *
+ * Control protocol, one text line per message:
+ *   shard to gateway: HELLO clientPort | LOBBY game seated ready | CLAIM game stage wonAt seat name
+ *   gateway to shard: SHARD index | OPEN game seed patterns | STARTING game seconds
+ *                     | CANCELLED game | START game | NUMBER game n drawnMicros
+ *                     | PRIZE game seat rank winners pot | STAGE game stage name
+ *                     | WINNER game name | END game
+ */
+public class BingoGateway {
+    static final int CONTROL_PORT = 12400;
+    private final long drawIntervalMs;
+    // How long claims from other shards may still arrive after the first one, and the points winners share
+    private final long claimWindowMs;
+    private final int prize;
+    private final StartPolicy policy;
+    private final WinPattern[] stages;
+    private final Long replaySeed;
+    private final boolean virtualThreads;
+    // Every game decision runs on this one thread, so game state needs no locks
+    private final ScheduledExecutorService game = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "bingo-gateway");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Shard> shards = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Shard> shardsByIndex = new ConcurrentHashMap<>();
+    private final AtomicInteger nextShardIndex = new AtomicInteger();
+    // Game thread only
+    private final Map<Integer, Game> games = new HashMap<>();
+    private Game openGame;
+    private int nextGameId;
+
+    BingoGateway(long drawIntervalMs, long claimWindowMs, int prize, StartPolicy policy, WinPattern[] stages,
+                 Long replaySeed, boolean virtualThreads) {
+        this.drawIntervalMs = drawIntervalMs;
+        this.claimWindowMs = claimWindowMs;
+        this.prize = prize;
+        this.policy = policy;
+        this.stages = stages;
+        this.replaySeed = replaySeed;
+        this.virtualThreads = virtualThreads;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(BingoServer.optionValue(args, "--port", String.valueOf(BingoServer.PORT)));
+        int controlPort = Integer.parseInt(BingoServer.optionValue(args, "--control", String.valueOf(CONTROL_PORT)));
+        long interval = Long.parseLong(BingoServer.optionValue(args, "--interval", "3000"));
+        String seed = BingoServer.optionValue(args, "--seed", null);
+        StartPolicy policy = StartPolicy.parse(BingoServer.optionValue(args, "--start", "all"));
+        WinPattern[] stages = WinPattern.parseStages(BingoServer.optionValue(args, "--patterns", "line"));
+        long claimWindow = Long.parseLong(BingoServer.optionValue(args, "--claim-window", "100"));
+        int prize = Integer.parseInt(BingoServer.optionValue(args, "--prize", "100"));
+        boolean virtual = Arrays.asList(args).contains("--virtual");
+        BingoLog.setLevel(BingoLog.Level.valueOf(BingoServer.optionValue(args, "--log", "info").toUpperCase()));
+
+        BingoGateway gateway = new BingoGateway(interval, claimWindow, prize, policy, stages,
+                seed == null ? null : Long.parseLong(seed), virtual);
+        gateway.serveShards(new ServerSocket(controlPort));
+
+        ServerSocket clients = new ServerSocket(port, BingoServer.ACCEPT_BACKLOG);
+        BingoLog.info("Bingo Gateway on port " + port + ", shards register on port " + controlPort
+                + " (--start=" + policy + ", --patterns=" + WinPattern.toSpec(stages) + ")");
+        while (true) {
+            Socket client = clients.accept();
+            Threads.start(gateway.new Relay(client), virtual);
+        }
+    }
+
+    // --- Shards ---
+
+    private static final class Shard {
+        final int index;
+        final String host;
+        final int clientPort;
+        final PrintWriter out;
+        final AtomicInteger connections = new AtomicInteger();
+
+        Shard(int index, String host, int clientPort, PrintWriter out) {
+            this.index = index;
+            this.host = host;
+            this.clientPort = clientPort;
+            this.out = out;
+        }
+
+        void send(String line) {
+            synchronized (out) {
+                out.println(line);
+                out.flush();
+            }
+        }
+    }
+
+    /** Opens the first game and registers shards that connect to the control socket, on a daemon thread. */
+    void serveShards(ServerSocket control) {
+        game.execute(this::openNextGame);
+        Thread shardAccept = new Thread(() -> acceptShards(control), "bingo-gateway-control");
+        shardAccept.setDaemon(true);
+        shardAccept.start();
+    }
+
+    private void acceptShards(ServerSocket control) {
+        while (true) {
+            try {
+                Socket socket = control.accept();
+                Thread reader = new Thread(() -> serveShard(socket), "bingo-gateway-shard");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                BingoLog.error("Shard registration stopped: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /** Registers one shard, then hands each of its messages to the game thread until it disconnects. */
+    private void serveShard(Socket socket) {
+        Shard shard = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8)));
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("HELLO ")) return;
+            Shard registered = new Shard(nextShardIndex.getAndIncrement(), socket.getInetAddress().getHostAddress(),
+                    Integer.parseInt(hello.substring("HELLO ".length())), out);
+            shard = registered;
+            game.submit(() -> shardJoined(registered)).get();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String message = line;
+                game.execute(() -> shardMessage(registered, message));
+            }
+        } catch (IOException | NumberFormatException | InterruptedException | ExecutionException e) {
+            BingoLog.warn("Shard connection failed: " + e);
+        } finally {
+            if (shard != null) {
+                Shard gone = shard;
+                game.execute(() -> shardLeft(gone));
+            }
+        }
+    }
+
+    private void shardJoined(Shard shard) {
+        shard.send("SHARD " + shard.index);
+        shard.send(openMessage(openGame));
+        shards.add(shard);
+        shardsByIndex.put(shard.index, shard);
+        BingoLog.info("Shard " + shard.index + " registered, clients on " + shard.host + ":" + shard.clientPort
+                + " (" + shards.size() + " shards)");
+    }
+
+    private void shardLeft(Shard shard) {
+        shards.remove(shard);
+        shardsByIndex.remove(shard.index);
+        BingoLog.warn("Shard " + shard.index + " disconnected (" + shards.size() + " shards left)");
+        for (Game g : games.values()) g.lobby.remove(shard);
+        lobbyChanged(openGame);
+    }
+
+    private void shardMessage(Shard shard, String line) {
+        String[] parts = line.split(" ", 6);
+        try {
+            Game g = games.get(Integer.parseInt(parts[1]));
+            if (g == null) return;
+            if (parts[0].equals("LOBBY")) {
+                g.lobby.put(shard, new int[] {Integer.parseInt(parts[2]), Integer.parseInt(parts[3])});
+                lobbyChanged(g);
+            } else if (parts[0].equals("CLAIM")) {
+                claimed(g, new Claim(shard, Integer.parseInt(parts[4]), parts[5]), Integer.parseInt(parts[2]),
+                        Integer.parseInt(parts[3]));
+            } else {
+                BingoLog.warn("Unknown message from shard " + shard.index + ": " + line);
+            }
+        } catch (RuntimeException e) {
+            BingoLog.warn("Bad message from shard " + shard.index + " '" + line + "': " + e);
+        }
+    }
+
+    private void sendAll(String line) {
+        for (Shard shard : shards) shard.send(line);
+    }
+
+    // --- Games, on the game thread only ---
+
+    private final class Game {
+        final int id;
+        final DrawSequence draws;
+        // Latest seated and ready counts reported by each shard
+        final Map<Shard, int[]> lobby = new HashMap<>();
+        BingoRoom.Phase phase = BingoRoom.Phase.LOBBY;
+        ScheduledFuture<?> startTimer;
+        ScheduledFuture<?> drawTask;
+        ScheduledFuture<?> closing;
+        int stage = 0;
+        // The draw the current stage's winning cards completed on, and their claims in arrival order
+        int winnerDraws = Integer.MAX_VALUE;
+        final List<Claim> winners = new ArrayList<>();
+        // Seats on each shard that have claimed the current stage; a seat counts once
+        final Map<Shard, BitSet> claimedSeats = new HashMap<>();
+
+        Game(int id, long seed) {
+            this.id = id;
+            this.draws = new DrawSequence(seed);
+        }
+    }
+
+    /** A valid claim as a shard forwarded it: the claimant's shard, seat there and name. */
+    private static final class Claim {
+        final Shard shard;
+        final int seat;
+        final String name;
+
+        Claim(Shard shard, int seat, String name) {
+            this.shard = shard;
+            this.seat = seat;
+            this.name = name;
+        }
+    }
+
+    private void openNextGame() {
+        int id = ++nextGameId;
+        long seed = replaySeed != null ? replaySeed + id - 1 : ThreadLocalRandom.current().nextLong();
+        openGame = new Game(id, seed);
+        games.put(id, openGame);
+        sendAll(openMessage(openGame));
+    }
+
+    private String openMessage(Game g) {
+        return "OPEN " + g.id + " " + g.draws.seed() + " " + WinPattern.toSpec(stages);
+    }
+
+    /** Applies the start policy to every shard's counts together, as a room does to its own. */
+    private void lobbyChanged(Game g) {
+        if (g.phase != BingoRoom.Phase.LOBBY) return;
+        int seated = 0, ready = 0;
+        for (int[] counts : g.lobby.values()) {
+            seated += counts[0];
+            ready += counts[1];
+        }
+        if (policy.startsNow(seated, ready)) {
+            start(g);
+        } else if (policy.countsDown(seated, ready) || (policy.scheduled() && seated > 0)) {
+            armStartTimer(g);
+        } else if (g.startTimer != null && policy.kind == StartPolicy.Kind.MIN) {
+            g.startTimer.cancel(false);
+            g.startTimer = null;
+            BingoLog.info("[Game " + g.id + "] Countdown cancelled.");
+            sendAll("CANCELLED " + g.id);
+        }
+    }
+
+    private void armStartTimer(Game g) {
+        if (g.startTimer != null) return;
+        long delay = policy.timerMillis();
+        g.startTimer = game.schedule(() -> startTimerFired(g), delay, TimeUnit.MILLISECONDS);
+        BingoLog.info("[Game " + g.id + "] Starts in " + delay / 1000 + " s (" + policy + ").");
+        sendAll("STARTING " + g.id + " " + delay / 1000);
+    }
+
+    private void startTimerFired(Game g) {
+        g.startTimer = null;
+        if (g.phase != BingoRoom.Phase.LOBBY) return;
+        int seated = 0, ready = 0;
+        for (int[] counts : g.lobby.values()) {
+            seated += counts[0];
+            ready += counts[1];
+        }
+        if (policy.startsOnTimer(seated, ready)) {
+            start(g);
+        } else if (policy.scheduled()) {
+            armStartTimer(g);
+        } else {
+            BingoLog.info("[Game " + g.id + "] Countdown cancelled.");
+            sendAll("CANCELLED " + g.id);
+        }
+    }
+
+    /** Opens the next game first, so players joining any shard from now on land there. */
+    private void start(Game g) {
+        if (g.startTimer != null) g.startTimer.cancel(false);
+        g.phase = BingoRoom.Phase.RUNNING;
+        openNextGame();
+        sendAll("START " + g.id);
+        int seated = 0;
+        for (int[] counts : g.lobby.values()) seated += counts[0];
+        BingoLog.info("[Game " + g.id + "] Started with " + seated + " players on " + g.lobby.size()
+                + " shards (seed " + g.draws.seed() + ")");
+        scheduleDraws(g);
+    }
+
+    private void scheduleDraws(Game g) {
+        if (drawIntervalMs > 0) {
+            g.drawTask = game.scheduleAtFixedRate(() -> draw(g), drawIntervalMs, drawIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            game.execute(() -> turboDraw(g));
+        }
+    }
+
+    private void turboDraw(Game g) {
+        if (draw(g)) game.execute(() -> turboDraw(g));
+    }
+
+    /** Draws the game's next number for every shard; returns false once drawing has stopped. */
+    private boolean draw(Game g) {
+        if (g.phase != BingoRoom.Phase.RUNNING || g.closing != null) return false;
+        int number = g.draws.next();
+        sendAll("NUMBER " + g.id + " " + number + " " + BingoProtocol.nowMicros());
+        if (g.draws.hasNext()) return true;
+        // Claims on the last number still count
+        closeAfterSettling(g);
+        return false;
+    }
+
+    /**
+     * A claim a shard found valid for a stage, for a card completed on the
+     * given draw. The first stops the draws; the claims for cards completed
+     * on the earliest draw win, ranked by arrival. Claims for a stage
+     * already decided, and repeats from a seat, are ignored.
+     */
+    private void claimed(Game g, Claim claim, int stage, int draws) {
+        if (g.phase != BingoRoom.Phase.RUNNING || stage != g.stage) return;
+        BitSet seats = g.claimedSeats.computeIfAbsent(claim.shard, shard -> new BitSet());
+        if (seats.get(claim.seat)) return;
+        seats.set(claim.seat);
+        if (draws < g.winnerDraws) {
+            g.winnerDraws = draws;
+            g.winners.clear();
+        }
+        if (draws == g.winnerDraws) g.winners.add(claim);
+        closeAfterSettling(g);
+    }
+
+    private void closeAfterSettling(Game g) {
+        if (g.closing != null) return;
+        if (g.drawTask != null) g.drawTask.cancel(false);
+        g.closing = game.schedule(() -> settled(g), claimWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Ends the game, or after a stage other than the last, announces its winners and draws on. */
+    private void settled(Game g) {
+        if (g.winners.isEmpty() || g.stage == stages.length - 1) {
+            finish(g);
+            return;
+        }
+        String winner = sendPrizes(g);
+        BingoLog.info("[Game " + g.id + "] " + winner + " won the " + stages[g.stage] + " stage after "
+                + g.winnerDraws + " numbers.");
+        sendAll("STAGE " + g.id + " " + g.stage + " " + winner);
+        g.stage++;
+        g.winners.clear();
+        g.claimedSeats.clear();
+        g.winnerDraws = Integer.MAX_VALUE;
+        g.closing = null;
+        if (g.draws.hasNext()) {
+            scheduleDraws(g);
+        } else {
+            finish(g);
+        }
+    }
+
+    private void finish(Game g) {
+        g.phase = BingoRoom.Phase.FINISHED;
+        games.remove(g.id);
+        if (!g.winners.isEmpty()) {
+            String winner = sendPrizes(g);
+            BingoLog.info("[Game " + g.id + "] Winner " + winner + " after " + g.winnerDraws + " numbers.");
+            sendAll("WINNER " + g.id + " " + winner);
+        } else {
+            BingoLog.info("[Game " + g.id + "] All numbers drawn, no winner.");
+            sendAll("END " + g.id);
+        }
+    }
+
+    /** Tells each co-winner's shard their rank and share; returns the best ranked's name. */
+    private String sendPrizes(Game g) {
+        int count = g.winners.size();
+        for (int rank = 1; rank <= count; rank++) {
+            Claim claim = g.winners.get(rank - 1);
+            claim.shard.send("PRIZE " + g.id + " " + claim.seat + " " + rank + " " + count + " " + prize);
+        }
+        if (count > 1) {
+            BingoLog.info("[Game " + g.id + "] " + count + " co-winners share the " + stages[g.stage] + " stage.");
+        }
+        return g.winners.get(0).name;
+    }
+
+    // --- Client connections ---
+
+    private Shard leastLoaded() {
+        Shard best = null;
+        for (Shard shard : shards) {
+            if (best == null || shard.connections.get() < best.connections.get()) best = shard;
+        }
+        return best;
+    }
+
+    /**
+     * Relays one client connection to a shard. Until the client's first line
+     * past the PROTO:/CARDS:/AUTODAUB options it reads client lines, so a
+     * RESUME for a session issued by another shard can be moved there: the
+     * options are replayed to that shard and its WELCOME and
+     * acknowledgements, which the client has already seen, are skipped.
+     */
+    private final class Relay implements Runnable {
+        private final Socket client;
+        private volatile Socket upstream;
+
+        Relay(Socket client) {
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            Shard shard = leastLoaded();
+            try (client) {
+                client.setTcpNoDelay(true);
+                if (shard == null) {
+                    client.getOutputStream().write(BingoServer.encodeLine("NO_SHARD"));
+                    return;
+                }
+                shard.connections.incrementAndGet();
+                upstream = connect(shard);
+                Thread pump = startPump(upstream, upstream.getInputStream());
+
+                InputStream fromClient = new BufferedInputStream(client.getInputStream());
+                List<String> options = new ArrayList<>();
+                String line;
+                while ((line = readLine(fromClient)) != null) {
+                    if (isOption(line)) {
+                        options.add(line);
+                        upstream.getOutputStream().write(BingoServer.encodeLine(line));
+                        continue;
+                    }
+                    Shard home = line.startsWith(BingoProtocol.RESUME)
+                            ? shardOf(line.substring(BingoProtocol.RESUME.length())) : null;
+                    if (home != null && home != shard) {
+                        Socket previous = upstream;
+                        upstream = connect(home);
+                        previous.close();
+                        pump.join();
+                        shard.connections.decrementAndGet();
+                        home.connections.incrementAndGet();
+                        shard = home;
+                        OutputStream out = upstream.getOutputStream();
+                        for (String option : options) out.write(BingoServer.encodeLine(option));
+                        out.write(BingoServer.encodeLine(line));
+                        InputStream in = upstream.getInputStream();
+                        skipHandshake(in, options);
+                        pump = startPump(upstream, in);
+                    } else {
+                        upstream.getOutputStream().write(BingoServer.encodeLine(line));
+                    }
+                    break;
+                }
+                if (line != null) fromClient.transferTo(upstream.getOutputStream());
+                upstream.shutdownOutput();
+                pump.join();
+            } catch (IOException e) {
+                // either side went away; closing both below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (shard != null) shard.connections.decrementAndGet();
+                closeQuietly(upstream);
+            }
+        }
+
+        private Socket connect(Shard shard) throws IOException {
+            Socket socket = new Socket(shard.host, shard.clientPort);
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+
+        /** Copies the shard's output to the client; closes the client when that shard closes, unless replaced. */
+        private Thread startPump(Socket from, InputStream in) {
+            return Threads.start(() -> {
+                try {
+                    in.transferTo(client.getOutputStream());
+                } catch (IOException e) {
+                    // closed from either side
+                }
+                if (upstream == from) closeQuietly(client);
+            }, virtualThreads);
+        }
+    }
+
+    /** Mirrors BingoServer.Player.negotiate(): the lines a client may send before its name. */
+    private static boolean isOption(String line) {
+        return line.equals(BingoProtocol.BINARY) || line.equals(BingoProtocol.STAMP)
+                || line.equals(BingoProtocol.AUTODAUB)
+                || (line.startsWith(BingoProtocol.CARDS) && line.substring(BingoProtocol.CARDS.length()).matches("\\d{1,6}"));
+    }
+
+    /** The shard whose index prefixes a session token ("3-..."), if it is still registered. */
+    private Shard shardOf(String token) {
+        int dash = token.indexOf('-');
+        if (dash <= 0 || !token.substring(0, dash).matches("\\d{1,9}")) return null;
+        return shardsByIndex.get(Integer.parseInt(token.substring(0, dash)));
+    }
+
+    /**
+     * Reads past WELCOME and one acknowledgement per option: text lines up
+     * to and including the PROTO:BIN acknowledgement, frames after it.
+     */
+    private static void skipHandshake(InputStream in, List<String> options) throws IOException {
+        readLine(in);
+        boolean binary = false;
+        for (String option : options) {
+            if (binary) {
+                if (in.read() < 0) throw new EOFException();
+                int length = 0;
+                for (int shift = 0; ; shift += 7) {
+                    int b = in.read();
+                    if (b < 0) throw new EOFException();
+                    length |= (b & 0x7f) << shift;
+                    if (b < 0x80) break;
+                }
+                in.readNBytes(length);
+            } else {
+                readLine(in);
+                binary = option.equals(BingoProtocol.BINARY);
+            }
+        }
+    }
+
+    /** One line without its terminator, or null at end of stream; reads byte by byte so nothing is over-read. */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            line.write(b);
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
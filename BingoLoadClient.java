@@ -0,0 +1,297 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: plays many simulated players against a running
+ * BingoServer on localhost. Each player connects, sends its name and ready,
+ * marks the card the server issues, claims BINGO as soon as it completes
+ * the PATTERN: being played and waits for WINNER:; in a game of several
+ * stages it claims again for each new pattern. Players who complete it on
+ * the same number share the prize (PRIZE:), counted in the report. Players join in groups of roomSize; a group readies
+ * together and the next group connects only once its game has started, so
+ * every group gets a room of its own.
+ *
+ * Players negotiate PROTO:STAMP, so each NUMBER carries its server send
+ * time and the report gives send-to-receipt latency percentiles. Start the
+ * server with a short --interval to finish games quickly.
+ *
+ * With --drop-after=N every player hangs up after its Nth number and
+ * reconnects at once with RESUME:token, a reconnect storm that measures how
+ * long the DRAWN: resync takes to arrive.
+ *
+ * --cards=N deals every player N cards. With --autodaub the server marks
+ * them and the players only answer WIN: with BINGO, as a thin client would.
+ *
+ * Usage: java BingoLoadClient [players] [roomSize] [--port=P] [--binary] [--platform] [--drop-after=N]
+ *                             [--cards=N] [--autodaub]
+ */
+public class BingoLoadClient {
+    private static final String HOST = "localhost";
+    // A handshake stuck longer than this counts as an error rather than hanging the run
+    private static final int HANDSHAKE_TIMEOUT_MS = 30_000;
+
+    private final int port;
+    private final boolean binary;
+    private final int dropAfter;
+    private final int cardsPerPlayer;
+    private final boolean autoDaub;
+    private final LatencyHistogram welcomeMicros = new LatencyHistogram();
+    private final LatencyHistogram numberMicros = new LatencyHistogram();
+    private final LatencyHistogram claimMicros = new LatencyHistogram();
+    private final LatencyHistogram resyncMicros = new LatencyHistogram();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder rejectedClaims = new LongAdder();
+    private final LongAdder gamesWon = new LongAdder();
+    private final LongAdder stagesWon = new LongAdder();
+    private final LongAdder sharedPrizes = new LongAdder();
+    private final LongAdder playersFinished = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder resumesRejected = new LongAdder();
+    private final LongAdder nearNotices = new LongAdder();
+
+    BingoLoadClient(int port, boolean binary, int dropAfter, int cardsPerPlayer, boolean autoDaub) {
+        this.port = port;
+        this.binary = binary;
+        this.dropAfter = dropAfter;
+        this.cardsPerPlayer = cardsPerPlayer;
+        this.autoDaub = autoDaub;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) positional.add(arg);
+        }
+        int players = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 1000;
+        int roomSize = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 100;
+        int port = Integer.parseInt(BingoServer.optionValue(args, "--port", "12345"));
+        boolean binary = Arrays.asList(args).contains("--binary");
+        boolean virtual = !Arrays.asList(args).contains("--platform") && Threads.virtualSupported();
+        int dropAfter = Integer.parseInt(BingoServer.optionValue(args, "--drop-after", "0"));
+        int cards = Integer.parseInt(BingoServer.optionValue(args, "--cards", "1"));
+        boolean autoDaub = Arrays.asList(args).contains("--autodaub");
+
+        BingoLoadClient client = new BingoLoadClient(port, binary, dropAfter, cards, autoDaub);
+        System.out.printf("players=%d roomSize=%d protocol=%s threads=%s drop-after=%d cards=%d%s java=%s%n",
+                players, roomSize, binary ? "binary" : "text", virtual ? "virtual" : "platform", dropAfter,
+                cards, autoDaub ? " autodaub" : "", System.getProperty("java.version"));
+        long start = System.nanoTime();
+        client.run(players, roomSize, virtual);
+        client.report(players, (System.nanoTime() - start) / 1e9);
+    }
+
+    void run(int players, int roomSize, boolean virtual) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger nextId = new AtomicInteger();
+        for (int first = 0; first < players; first += roomSize) {
+            int size = Math.min(roomSize, players - first);
+            CountDownLatch connected = new CountDownLatch(size);
+            CountDownLatch readyGate = new CountDownLatch(1);
+            CountDownLatch started = new CountDownLatch(size);
+            for (int i = 0; i < size; i++) {
+                SimPlayer player = new SimPlayer("sim-" + nextId.incrementAndGet(), connected, readyGate, started);
+                threads.add(Threads.start(player, virtual));
+            }
+            connected.await();
+            readyGate.countDown();
+            // The room must start before the next group connects, or they would share it
+            started.await();
+        }
+        for (Thread thread : threads) thread.join();
+    }
+
+    void report(int players, double seconds) {
+        System.out.printf("elapsed %.1f s, %d of %d players finished, %d games won, %d errors%n",
+                seconds, playersFinished.sum(), players, gamesWon.sum(), errors.sum());
+        System.out.printf("messages received %d (%.0f/s), claims %d, rejected %d, NEAR: notices %d%n",
+                messages.sum(), messages.sum() / seconds, claims.sum(), rejectedClaims.sum(), nearNotices.sum());
+        System.out.println("connect->WELCOME     " + welcomeMicros.summary("us"));
+        System.out.println("NUMBER send->receipt " + numberMicros.summary("us"));
+        System.out.println("BINGO->WINNER        " + claimMicros.summary("us"));
+        if (stagesWon.sum() > 0) System.out.printf("stages won before the last %d%n", stagesWon.sum());
+        if (sharedPrizes.sum() > 0) System.out.printf("prizes shared with co-winners %d%n", sharedPrizes.sum());
+        if (dropAfter > 0) {
+            System.out.printf("reconnects %d, rejected %d%n", resumed.sum(), resumesRejected.sum());
+            System.out.println("RESUME->DRAWN        " + resyncMicros.summary("us"));
+        }
+    }
+
+    /** One simulated player, run on its own (virtual) thread. */
+    private class SimPlayer implements Runnable {
+        private final String name;
+        private final CountDownLatch connected;
+        private final CountDownLatch readyGate;
+        private final CountDownLatch started;
+        private boolean counted = false;
+        private WinPattern pattern = WinPattern.LINE;
+        // Game state kept across a reconnect
+        private String token;
+        private final List<BingoCard> cards = new ArrayList<>();
+        private long claimedAt;
+        private int numbersSeen;
+        private long resumedAt;
+
+        SimPlayer(String name, CountDownLatch connected, CountDownLatch readyGate, CountDownLatch started) {
+            this.name = name;
+            this.connected = connected;
+            this.readyGate = readyGate;
+            this.started = started;
+        }
+
+        @Override
+        public void run() {
+            boolean joined = false;
+            boolean dropped;
+            try (Socket socket = new Socket()) {
+                long connectStart = System.nanoTime();
+                socket.connect(new InetSocketAddress(HOST, port), HANDSHAKE_TIMEOUT_MS);
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                BingoProtocol.Reader in = new BingoProtocol.Reader(socket.getInputStream());
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                handshake(in, out, connectStart);
+                out.println(name);
+                in.next(); // ready prompt
+                socket.setSoTimeout(0); // draws may be paused indefinitely
+                joined = true;
+                connected.countDown();
+                readyGate.await();
+                out.println("ready");
+                dropped = play(in, out);
+            } catch (IOException | InterruptedException e) {
+                errors.increment();
+                return;
+            } finally {
+                if (!joined) connected.countDown();
+                gameStarted();
+            }
+            if (dropped) rejoin();
+        }
+
+        /** Reads WELCOME and negotiates; returns once the server has acknowledged every option. */
+        private void handshake(BingoProtocol.Reader in, PrintWriter out, long connectStart) throws IOException {
+            if (!"WELCOME".equals(in.readLine())) throw new IOException("No WELCOME");
+            welcomeMicros.record((System.nanoTime() - connectStart) / 1_000);
+            if (binary) in.requestBinary(out);
+            in.requestStamps(out);
+            if (cardsPerPlayer > 1) in.requestCards(out, cardsPerPlayer);
+            if (autoDaub) in.requestAutoDaub(out);
+        }
+
+        /** Reconnects with the session token and plays on from the DRAWN: snapshot. */
+        private void rejoin() {
+            try (Socket socket = new Socket()) {
+                long connectStart = System.nanoTime();
+                socket.connect(new InetSocketAddress(HOST, port), HANDSHAKE_TIMEOUT_MS);
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                BingoProtocol.Reader in = new BingoProtocol.Reader(socket.getInputStream());
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                handshake(in, out, connectStart);
+                resumedAt = System.nanoTime();
+                out.println(BingoProtocol.RESUME + token);
+                in.next();
+                if (!in.text().startsWith("RESUMED:")) {
+                    // The game ended while this player was away
+                    resumesRejected.increment();
+                    playersFinished.increment();
+                    return;
+                }
+                socket.setSoTimeout(0);
+                resumed.increment();
+                play(in, out);
+            } catch (IOException e) {
+                errors.increment();
+            }
+        }
+
+        /** Plays until the game ends; returns true if it hung up early to test resuming. */
+        private boolean play(BingoProtocol.Reader in, PrintWriter out) throws IOException {
+            while (in.next()) {
+                messages.increment();
+                if (in.opcode() == BingoProtocol.OP_NUMBER) {
+                    if (in.stamp() != 0) numberMicros.record(BingoProtocol.nowMicros() - in.stamp());
+                    if (!autoDaub) {
+                        for (BingoCard card : cards) card.markNumber(in.number());
+                        claimIfBingo(out);
+                    }
+                    if (++numbersSeen == dropAfter && token != null) return true;
+                    continue;
+                }
+                String text = in.text();
+                if (text.equals(BingoProtocol.PING)) {
+                    out.println(BingoProtocol.PONG);
+                } else if (text.startsWith("CARD:")) {
+                    // A resumed session is dealt its cards again
+                    if (cards.size() == cardsPerPlayer) cards.clear();
+                    cards.add(BingoCard.fromProtocol(text));
+                } else if (text.startsWith(BingoProtocol.WIN)) {
+                    claim(out);
+                } else if (text.startsWith(BingoProtocol.NEAR)) {
+                    nearNotices.increment();
+                } else if (text.startsWith(BingoProtocol.SESSION)) {
+                    token = text.substring(BingoProtocol.SESSION.length());
+                } else if (text.startsWith(BingoProtocol.DRAWN)) {
+                    resyncMicros.record((System.nanoTime() - resumedAt) / 1_000);
+                    boolean[] drawn = BingoProtocol.parseDrawn(text);
+                    if (autoDaub) continue;
+                    for (int n = 1; n < drawn.length; n++) {
+                        if (!drawn[n]) continue;
+                        for (BingoCard card : cards) card.markNumber(n);
+                    }
+                    claimIfBingo(out);
+                } else if (text.startsWith(BingoProtocol.PATTERN)) {
+                    pattern = WinPattern.parse(text.substring(BingoProtocol.PATTERN.length()));
+                    if (!autoDaub) claimIfBingo(out);
+                } else if (text.startsWith(BingoProtocol.STAGE_WINNER)) {
+                    String winner = text.substring(text.indexOf(':', BingoProtocol.STAGE_WINNER.length()) + 1);
+                    if (claimedAt != 0) claimMicros.record((System.nanoTime() - claimedAt) / 1_000);
+                    if (winner.equals(name)) stagesWon.increment();
+                    claimedAt = 0; // free to claim the next pattern
+                } else if (text.startsWith(BingoProtocol.PRIZE)) {
+                    if (!text.split(":")[2].equals("1")) sharedPrizes.increment();
+                } else if (text.equals("GAME_START")) {
+                    gameStarted();
+                } else if (text.equals("INVALID_BINGO")) {
+                    rejectedClaims.increment();
+                } else if (text.startsWith("WINNER:")) {
+                    String winner = text.substring("WINNER:".length());
+                    if (claimedAt != 0) claimMicros.record((System.nanoTime() - claimedAt) / 1_000);
+                    if (winner.equals(name)) gamesWon.increment();
+                    playersFinished.increment();
+                    return false;
+                }
+            }
+            // No winner: the server closes the room after the 75th number
+            playersFinished.increment();
+            return false;
+        }
+
+        private void claimIfBingo(PrintWriter out) {
+            for (BingoCard card : cards) {
+                if (card.matches(pattern)) {
+                    claim(out);
+                    return;
+                }
+            }
+        }
+
+        private void claim(PrintWriter out) {
+            if (claimedAt != 0) return;
+            claimedAt = System.nanoTime();
+            claims.increment();
+            out.println("BINGO");
+        }
+
+        private void gameStarted() {
+            if (!counted) {
+                counted = true;
+                started.countDown();
+            }
+        }
+    }
+}
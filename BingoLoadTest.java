@@ -0,0 +1,181 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts BingoServer in-process and opens idle player connections in steps,
+ * printing the server JVM's thread count, heap use, resident set size and
+ * the connect-to-WELCOME latency of the connections opened in that step.
+ * With a broadcast count, it then sends that many NUMBER: broadcasts to all
+ * connections and reports broadcast() call time and delivery latency.
+ *
+ * Usage: java BingoLoadTest [blocking|nio|virtual] [maxConnections] [step] [broadcasts]
+ */
+public class BingoLoadTest {
+    private static final String HOST = "localhost";
+    private static final int PORT = 12345;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "nio";
+        int max = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int step = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int broadcasts = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        // The connections are idle on purpose, so no PINGs and no idle timeout
+        String[] serverArgs;
+        switch (mode) {
+            case "nio": serverArgs = new String[] {"--nio", "--heartbeat=0", "--idle-timeout=0"}; break;
+            case "virtual": serverArgs = new String[] {"--virtual", "--heartbeat=0", "--idle-timeout=0"}; break;
+            default: serverArgs = new String[] {"--heartbeat=0", "--idle-timeout=0"}; break;
+        }
+        Thread server = new Thread(() -> {
+            try {
+                BingoServer.main(serverArgs);
+            } catch (IOException e) {
+                BingoLog.error("In-process server failed: " + e);
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        waitForServer();
+
+        // Silence per-connection server logging while we measure
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("mode=%s java=%s%n", mode, System.getProperty("java.version"));
+        console.printf("%12s %10s %12s %10s %12s %12s%n",
+                "connections", "threads", "heapUsedMB", "rssMB", "p50WelcomeUs", "p99WelcomeUs");
+        report(console, 0, new long[0]);
+
+        List<Socket> sockets = new ArrayList<>();
+        List<BufferedReader> readers = new ArrayList<>();
+        long[] latencies = new long[step];
+        for (int i = 1; i <= max; i++) {
+            long start = System.nanoTime();
+            Socket socket = new Socket(HOST, PORT);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            in.readLine(); // WELCOME
+            latencies[(i - 1) % step] = (System.nanoTime() - start) / 1000;
+            out.println("player" + i);
+            sockets.add(socket);
+            readers.add(in);
+
+            if (i % step == 0) {
+                Thread.sleep(200); // let the server settle before sampling
+                report(console, i, latencies);
+            }
+        }
+
+        if (broadcasts > 0) {
+            measureBroadcast(console, readers, broadcasts);
+        }
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private static void measureBroadcast(PrintStream console, List<BufferedReader> readers, int count)
+            throws InterruptedException {
+        int clients = readers.size();
+        long[] sentAt = new long[count];
+        long[][] receivedAt = new long[count][clients];
+        CountDownLatch done = new CountDownLatch(clients);
+
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            BufferedReader in = readers.get(c);
+            Threads.start(() -> {
+                try {
+                    int seen = 0;
+                    String line;
+                    while (seen < count && (line = in.readLine()) != null) {
+                        if (line.startsWith("NUMBER:")) {
+                            receivedAt[Integer.parseInt(line.substring(7))][client] = System.nanoTime();
+                            seen++;
+                        }
+                    }
+                } catch (IOException e) {
+                    // disconnected by the server
+                } finally {
+                    done.countDown();
+                }
+            }, true);
+        }
+        Thread.sleep(500); // readers drain the handshake lines first
+
+        long[] callUs = new long[count];
+        for (int b = 0; b < count; b++) {
+            sentAt[b] = System.nanoTime();
+            BingoServer.broadcast("NUMBER:" + b);
+            callUs[b] = (System.nanoTime() - sentAt[b]) / 1000;
+            Thread.sleep(20);
+        }
+        done.await(10, TimeUnit.SECONDS);
+
+        long[] deliveryUs = new long[count * clients];
+        int n = 0;
+        for (int b = 0; b < count; b++) {
+            for (int c = 0; c < clients; c++) {
+                if (receivedAt[b][c] != 0) deliveryUs[n++] = (receivedAt[b][c] - sentAt[b]) / 1000;
+            }
+        }
+        deliveryUs = Arrays.copyOf(deliveryUs, n);
+        Arrays.sort(deliveryUs);
+        Arrays.sort(callUs);
+
+        console.printf("broadcasts=%d clients=%d delivered=%d/%d%n", count, clients, n, count * clients);
+        console.printf("broadcast() call us: p50=%d p99=%d max=%d%n",
+                percentile(callUs, 0.50), percentile(callUs, 0.99), callUs[count - 1]);
+        console.printf("delivery latency us: p50=%d p99=%d max=%d%n",
+                percentile(deliveryUs, 0.50), percentile(deliveryUs, 0.99), n > 0 ? deliveryUs[n - 1] : 0);
+    }
+
+    private static void report(PrintStream console, int connections, long[] latencies) {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        long usedMb = (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024);
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        console.printf("%12d %10d %12d %10d %12d %12d%n", connections, threads, usedMb, rssMb(),
+                percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /** Resident set size from /proc (Linux only), or -1 when unavailable. */
+    static long rssMb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) / 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not on Linux
+        }
+        return -1;
+    }
+
+    private static void waitForServer() throws InterruptedException {
+        while (true) {
+            try {
+                new Socket(HOST, PORT).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+}
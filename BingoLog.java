@@ -0,0 +1,80 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous, level-controlled server log. Callers only format the line
+ * and offer it to a bounded queue; a daemon thread writes batches to
+ * standard output. Draw and broadcast threads never wait on console I/O:
+ * when the queue is full the line is dropped and counted instead.
+ *
+ * Guard expensive messages with enabled(), e.g.
+ * {@code if (BingoLog.enabled(Level.DEBUG)) BingoLog.debug("Sent number: " + n)}.
+ */
+final class BingoLog {
+    enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int CAPACITY = 8192;
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(CAPACITY);
+    static final LongAdder dropped = new LongAdder();
+    private static volatile Level level = Level.INFO;
+
+    static {
+        Thread writer = new Thread(BingoLog::writeLoop, "bingo-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private BingoLog() {
+    }
+
+    static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    static boolean enabled(Level at) {
+        return at.compareTo(level) >= 0;
+    }
+
+    static void debug(String msg) {
+        log(Level.DEBUG, msg);
+    }
+
+    static void info(String msg) {
+        log(Level.INFO, msg);
+    }
+
+    static void warn(String msg) {
+        log(Level.WARN, msg);
+    }
+
+    static void error(String msg) {
+        log(Level.ERROR, msg);
+    }
+
+    static void log(Level at, String msg) {
+        if (!enabled(at)) return;
+        if (!queue.offer(at == Level.INFO ? msg : at + " " + msg)) dropped.increment();
+    }
+
+    /** Writes whatever has queued up, one flush per batch. */
+    private static void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            // Read each time, so a redirected System.out (e.g. by benchmarks) is honoured
+            PrintStream out = System.out;
+            for (String line : batch) out.println(line);
+            out.flush();
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide counters and latency histograms, served in Prometheus text
+ * format at http://localhost:PORT/metrics when started with --metrics=PORT.
+ *
+ * Hot paths only bump LongAdders or record into a lock-free histogram, and
+ * a broadcast counts its whole fan-out with one add. Gauges such as
+ * connected clients, ready players, active games and per-client queue depth
+ * are computed when scraped, so they cost nothing while the game runs.
+ */
+final class BingoMetrics {
+    // Off only for benchmarks that measure what recording costs
+    static boolean enabled = true;
+
+    static final LongAdder connectionsOpened = new LongAdder();
+    static final LongAdder connectionsClosed = new LongAdder();
+    static final LongAdder gamesStarted = new LongAdder();
+    static final LongAdder gamesFinished = new LongAdder();
+    static final LongAdder numbersDrawn = new LongAdder();
+    static final LongAdder claims = new LongAdder();
+    static final LongAdder invalidClaims = new LongAdder();
+    static final LongAdder messagesQueued = new LongAdder();
+    static final LongAdder messagesDropped = new LongAdder();
+    static final LongAdder slowClientsDisconnected = new LongAdder();
+    static final LongAdder sessionsResumed = new LongAdder();
+    static final LongAdder spectatorsJoined = new LongAdder();
+    static final LongAdder snapshotsBuilt = new LongAdder();
+    static final LongAdder pingsSent = new LongAdder();
+    static final LongAdder handshakeTimeouts = new LongAdder();
+    static final LongAdder idleTimeouts = new LongAdder();
+    static final LatencyHistogram broadcastNanos = new LatencyHistogram();
+    static final LatencyHistogram drawDriftNanos = new LatencyHistogram();
+    static final LatencyHistogram drawMarkNanos = new LatencyHistogram();
+    static final LatencyHistogram claimSettleNanos = new LatencyHistogram();
+
+    private BingoMetrics() {
+    }
+
+    static void increment(LongAdder counter) {
+        if (enabled) counter.increment();
+    }
+
+    static void add(LongAdder counter, long amount) {
+        if (enabled) counter.add(amount);
+    }
+
+    static void record(LatencyHistogram histogram, long value) {
+        if (enabled) histogram.record(value);
+    }
+
+    /** Serves GET /metrics on the loopback interface from one daemon thread. */
+    static void startHttp(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "bingo-metrics");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        BingoLog.info("Metrics at http://localhost:" + port + "/metrics");
+    }
+
+    /** The current values in Prometheus text exposition format. */
+    static String scrape() {
+        int rooms = 0, activeGames = 0, players = 0, ready = 0, maxQueue = 0;
+        long totalQueue = 0;
+        for (BingoRoom room : BingoServer.rooms()) {
+            rooms++;
+            if (room.isStarted() && !room.isFinished()) activeGames++;
+            players += room.playerCount();
+            ready += room.readyCount();
+            for (BingoServer.Player player : room.players()) {
+                int depth = player.queueDepth();
+                totalQueue += depth;
+                maxQueue = Math.max(maxQueue, depth);
+            }
+        }
+
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "bingo_connected_clients", "Open client connections",
+                connectionsOpened.sum() - connectionsClosed.sum());
+        gauge(out, "bingo_rooms", "Rooms open or playing", rooms);
+        gauge(out, "bingo_active_games", "Rooms whose game is drawing numbers", activeGames);
+        gauge(out, "bingo_room_players", "Players seated in rooms", players);
+        gauge(out, "bingo_ready_players", "Players who have sent ready", ready);
+        gauge(out, "bingo_client_queue_depth_max", "Deepest per-client outbound queue", maxQueue);
+        gauge(out, "bingo_client_queue_depth_total", "Messages waiting in all outbound queues", totalQueue);
+        gauge(out, "bingo_connection_timers", "Heartbeat and timeout timers armed", ConnectionManager.timers());
+        counter(out, "bingo_connections_total", "Connections accepted", connectionsOpened.sum());
+        counter(out, "bingo_games_started_total", "Games started", gamesStarted.sum());
+        counter(out, "bingo_games_finished_total", "Games finished", gamesFinished.sum());
+        counter(out, "bingo_numbers_drawn_total", "Numbers drawn across all rooms", numbersDrawn.sum());
+        counter(out, "bingo_claims_total", "BINGO claims received", claims.sum());
+        counter(out, "bingo_invalid_claims_total", "BINGO claims rejected", invalidClaims.sum());
+        counter(out, "bingo_messages_queued_total", "Messages queued to clients", messagesQueued.sum());
+        counter(out, "bingo_messages_dropped_total", "Messages dropped on full queues", messagesDropped.sum());
+        counter(out, "bingo_slow_clients_disconnected_total", "Clients disconnected for falling behind",
+                slowClientsDisconnected.sum());
+        counter(out, "bingo_sessions_resumed_total", "Dropped players who resumed their seat",
+                sessionsResumed.sum());
+        counter(out, "bingo_spectators_joined_total", "Spectators admitted", spectatorsJoined.sum());
+        counter(out, "bingo_snapshots_built_total", "DRAWN: resync messages built", snapshotsBuilt.sum());
+        counter(out, "bingo_pings_sent_total", "PINGs sent to quiet clients", pingsSent.sum());
+        counter(out, "bingo_handshake_timeouts_total", "Connections closed before sending a name",
+                handshakeTimeouts.sum());
+        counter(out, "bingo_idle_timeouts_total", "Connections closed after going quiet", idleTimeouts.sum());
+        counter(out, "bingo_log_dropped_total", "Log lines dropped on a full log queue", BingoLog.dropped.sum());
+        summary(out, "bingo_broadcast_seconds", "Time to queue one broadcast to a whole room", broadcastNanos);
+        summary(out, "bingo_draw_drift_seconds", "Lateness of draws against their fixed-rate schedule",
+                drawDriftNanos);
+        summary(out, "bingo_draw_mark_seconds", "Time per draw to mark every card and send NEAR:/WIN:",
+                drawMarkNanos);
+        summary(out, "bingo_claim_settle_seconds", "Time from a winning claim's arrival to its PRIZE:",
+                claimSettleNanos);
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram nanos) {
+        header(out, name, help, "summary");
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(nanos.valueAtPercentile(quantile * 100) / 1e9).append('\n');
+        }
+        out.append(name).append("_sum ").append(nanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(nanos.count()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alternative server front end: one selector thread services every client
+ * socket, speaking the same line protocol as BingoServer.ClientHandler
+ * (WELCOME / name / ready / NUMBER: / BINGO / WINNER:), including the
+ * optional PROTO:BIN and PROTO:STAMP options and the PING/PONG heartbeat.
+ */
+public class BingoNioServer implements Runnable {
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    // Players with queued output, handed over from other threads to the loop
+    private final Queue<NioPlayer> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    public BingoNioServer(int port) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), BingoServer.ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        BingoLog.info("Bingo Server (NIO) started on port " + port);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                BingoLog.error("Selector failed: " + e);
+                return;
+            }
+
+            NioPlayer pending;
+            while ((pending = pendingWrites.poll()) != null) {
+                pending.enableWrite();
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) continue;
+
+                if (key.isAcceptable()) {
+                    accept();
+                } else {
+                    NioPlayer player = (NioPlayer) key.attachment();
+                    if (key.isReadable()) player.read();
+                    if (key.isValid() && key.isWritable()) player.write();
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) return;
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            NioPlayer player = new NioPlayer(channel);
+            player.key = channel.register(selector, SelectionKey.OP_READ, player);
+            BingoMetrics.increment(BingoMetrics.connectionsOpened);
+            ConnectionManager.watch(player);
+            player.send("WELCOME");
+        } catch (IOException e) {
+            BingoLog.warn("Failed to accept connection: " + e.getMessage());
+        }
+    }
+
+    private enum State { NAME, LOBBY, PLAYING, SPECTATING, DONE }
+
+    class NioPlayer extends BingoServer.Player {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(512);
+        private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(64);
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean writeRequested = new AtomicBoolean();
+        private volatile boolean active = true;
+        private volatile boolean closeRequested = false;
+        private State state = State.NAME;
+
+        NioPlayer(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Queues a view over the shared encoded message; the bytes are never copied. */
+        @Override
+        protected boolean enqueue(byte[] line) {
+            if (!active || closeRequested) return true;
+            if (queued.incrementAndGet() > BingoServer.queueCapacity) {
+                queued.decrementAndGet();
+                return false;
+            }
+            outbound.add(ByteBuffer.wrap(line));
+            requestWrite();
+            return true;
+        }
+
+        @Override
+        int queueDepth() {
+            return queued.get();
+        }
+
+        /** Closes once everything already queued (e.g. WINNER:) has been flushed. */
+        @Override
+        public void close() {
+            closeRequested = true;
+            requestWrite();
+        }
+
+        @Override
+        protected void abort() {
+            shutdown();
+        }
+
+        private void requestWrite() {
+            if (writeRequested.compareAndSet(false, true)) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+
+        // --- Selector thread only below ---
+
+        void enableWrite() {
+            writeRequested.set(false);
+            try {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (CancelledKeyException e) {
+                // aborted from another thread
+            }
+        }
+
+        void write() {
+            try {
+                ByteBuffer buf;
+                while ((buf = outbound.peek()) != null) {
+                    channel.write(buf);
+                    if (buf.hasRemaining()) return; // socket buffer full, wait for OP_WRITE
+                    outbound.poll();
+                    queued.decrementAndGet();
+                }
+                if (closeRequested) {
+                    shutdown();
+                } else {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                disconnected();
+            }
+        }
+
+        void read() {
+            int n;
+            try {
+                n = channel.read(readBuffer);
+            } catch (IOException e) {
+                disconnected();
+                return;
+            }
+            if (n < 0) {
+                BingoServer.playerLeft(this);
+                shutdown();
+                return;
+            }
+            if (n > 0) heard();
+
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    String line = new String(lineBuffer.toByteArray(), StandardCharsets.UTF_8);
+                    lineBuffer.reset();
+                    if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+                    onLine(line);
+                    if (!active) return;
+                } else if (lineBuffer.size() < BingoServer.MAX_LINE) {
+                    lineBuffer.write(b);
+                }
+            }
+            readBuffer.clear();
+        }
+
+        /** Same state progression as ClientHandler.run(). */
+        private void onLine(String line) {
+            if (line.equals(BingoProtocol.PONG)) {
+                ponged(); // read() already noted it was heard
+                return;
+            }
+            switch (state) {
+                case NAME:
+                    if (negotiate(line)) break;
+                    switch (enter(line)) {
+                        case LOBBY:
+                            state = State.LOBBY;
+                            break;
+                        case PLAYING:
+                            state = State.PLAYING;
+                            break;
+                        case SPECTATING:
+                            state = State.SPECTATING;
+                            break;
+                        default:
+                            state = State.DONE;
+                            break;
+                    }
+                    break;
+                case LOBBY:
+                    if (line.equalsIgnoreCase("ready")) {
+                        state = State.PLAYING;
+                        BingoServer.playerReady(this);
+                    } else if (line.equalsIgnoreCase("BINGO") && room.isStarted()) {
+                        BingoServer.bingoClaimed(this);
+                    }
+                    break;
+                case PLAYING:
+                    if (line.equalsIgnoreCase("BINGO")) BingoServer.bingoClaimed(this);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void disconnected() {
+            BingoLog.info(name + " disconnected.");
+            BingoServer.playerLeft(this);
+            shutdown();
+        }
+
+        private void shutdown() {
+            connectionClosed();
+            active = false;
+            outbound.clear();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Compact binary framing that clients can negotiate instead of text lines.
+ * Right after WELCOME a client may send "PROTO:BIN"; the server answers
+ * "PROTO:BIN" as its last text line and sends every later message as a
+ * frame:
+ *
+ *   OP_NUMBER, number                    NUMBER:n in 2 bytes
+ *   OP_TEXT, varint length, UTF-8 bytes  any other message
+ *
+ * Client-to-server messages stay text lines. Clients that never ask keep
+ * the plain text protocol.
+ *
+ * A client may also send "PROTO:STAMP" (acknowledged the same way) to have
+ * every NUMBER carry the server's send time in epoch microseconds, for
+ * measuring delivery latency: "NUMBER:n:micros" as text, or
+ * OP_STAMPED_NUMBER, number, varint micros as a frame.
+ *
+ * Every seated player is sent "SESSION:token". A dropped player reconnects
+ * with "RESUME:token" instead of a name and keeps their seat and card;
+ * "SPECTATE" (or "SPECTATE:room") watches a game without a card. Both get
+ * the numbers drawn so far as one "DRAWN:" snapshot, a 75-bit bitmap in 19
+ * hex digits, instead of a replay of every NUMBER.
+ *
+ * Before its name a client may also ask for several cards with "CARDS:n"
+ * (one CARD: line each at game start) and for "AUTODAUB": the server then
+ * marks its cards and sends "NEAR:i" the first time card i is one number
+ * short of the pattern and "WIN:i" when it completes it, so the client only
+ * has to answer WIN: with BINGO.
+ *
+ * With a countdown or scheduled start (--start) the lobby is told
+ * "STARTING_IN:seconds" when the start timer is set and
+ * "START_CANCELLED" if it lapses before the game starts. A player who
+ * joins while the timer runs is told after their ready prompt, which is
+ * always the first line after the name.
+ *
+ * Just before GAME_START, and on RESUME, players are told the pattern a
+ * BINGO must complete as "PATTERN:name" (see WinPattern). In a game of
+ * several stages (--patterns) the winner of each stage but the last is
+ * announced as "STAGE_WINNER:pattern:name", followed by the next
+ * "PATTERN:"; NEAR: and WIN: then refer to that pattern. Only the last
+ * stage's winner is announced with WINNER: and ends the game.
+ *
+ * Players whose cards completed the pattern on the same number share the
+ * stage (see BingoRoom.announceWinner). Before the STAGE_WINNER: or WINNER:
+ * naming the best ranked of them, each is sent "PRIZE:rank:winners:points"
+ * with their place among the co-winners and their share of the --prize.
+ *
+ * A client the server has not heard from for a while is sent "PING" and
+ * should answer "PONG"; one that stays silent is disconnected (see
+ * ConnectionManager). PING may arrive at any time after the name.
+ */
+final class BingoProtocol {
+    static final String BINARY = "PROTO:BIN";
+    static final String STAMP = "PROTO:STAMP";
+    static final String SESSION = "SESSION:";
+    static final String RESUME = "RESUME:";
+    static final String SPECTATE = "SPECTATE";
+    static final String DRAWN = "DRAWN:";
+    static final String CARDS = "CARDS:";
+    static final String AUTODAUB = "AUTODAUB";
+    static final String NEAR = "NEAR:";
+    static final String WIN = "WIN:";
+    static final String READY_PROMPT = "Type 'ready' to start the game...";
+    static final String STARTING_IN = "STARTING_IN:";
+    static final String START_CANCELLED = "START_CANCELLED";
+    static final String PATTERN = "PATTERN:";
+    static final String STAGE_WINNER = "STAGE_WINNER:";
+    static final String PRIZE = "PRIZE:";
+    static final String PING = "PING";
+    static final String PONG = "PONG";
+    static final int OP_TEXT = 0;
+    static final int OP_NUMBER = 1;
+    static final int OP_STAMPED_NUMBER = 2;
+
+    private static final byte[] NUMBER_PREFIX = "NUMBER:".getBytes(StandardCharsets.US_ASCII);
+
+    private BingoProtocol() {
+    }
+
+    /**
+     * The PRIZE: line for the co-winner ranked rank (from 1) of winners
+     * sharing pot points: an equal share each, the remainder going one
+     * point apiece to the best ranked.
+     */
+    static String prize(int rank, int winners, int pot) {
+        int share = pot / winners + (rank <= pot % winners ? 1 : 0);
+        return PRIZE + rank + ":" + winners + ":" + share;
+    }
+
+    /** "DRAWN:" followed by numbers 65..75 then 1..64 as bits, most significant first. */
+    static String drawnMessage(long drawnLow, long drawnHigh) {
+        return String.format("%s%03x%016x", DRAWN, drawnHigh, drawnLow);
+    }
+
+    /** The numbers in a DRAWN: message; drawn[n] is true if n has been drawn. */
+    static boolean[] parseDrawn(String msg) {
+        String hex = msg.substring(DRAWN.length());
+        long high = Long.parseUnsignedLong(hex.substring(0, 3), 16);
+        long low = Long.parseUnsignedLong(hex.substring(3), 16);
+        boolean[] drawn = new boolean[76];
+        for (int n = 1; n <= 75; n++) {
+            drawn[n] = n <= 64 ? (low & 1L << (n - 1)) != 0 : (high & 1L << (n - 65)) != 0;
+        }
+        return drawn;
+    }
+
+    /** Wall-clock time in microseconds, comparable between processes on one host. */
+    static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    /**
+     * A server message encoded once for each protocol, shared by every
+     * recipient. A NUMBER is stamped when it is encoded; the stamped
+     * variants are built on first use, so rooms without PROTO:STAMP players
+     * never pay for them.
+     */
+    static final class Encoded {
+        final byte[] text;
+        final byte[] binary;
+        private final int number; // > 0 only for NUMBER: messages
+        private final long sentMicros;
+        private volatile byte[] stampedText;
+        private volatile byte[] stampedBinary;
+
+        private Encoded(byte[] text, byte[] binary, int number, long sentMicros) {
+            this.text = text;
+            this.binary = binary;
+            this.number = number;
+            this.sentMicros = sentMicros;
+        }
+
+        static Encoded of(String msg) {
+            int number = numberOf(msg);
+            return new Encoded(BingoServer.encodeLine(msg), encodeFrame(msg), number,
+                    number > 0 ? nowMicros() : 0);
+        }
+
+        /** A NUMBER stamped with when it was drawn elsewhere, e.g. by the gateway. */
+        static Encoded number(int number, long drawnMicros) {
+            String msg = "NUMBER:" + number;
+            return new Encoded(BingoServer.encodeLine(msg), encodeFrame(msg), number, drawnMicros);
+        }
+
+        /** The bytes for a player with the given options; racing builders produce identical arrays. */
+        byte[] bytes(boolean binaryFrames, boolean stamped) {
+            if (!stamped || number <= 0) return binaryFrames ? binary : text;
+            if (binaryFrames) {
+                byte[] frame = stampedBinary;
+                if (frame == null) stampedBinary = frame = encodeStamped(number, sentMicros);
+                return frame;
+            }
+            byte[] line = stampedText;
+            if (line == null) stampedText = line = BingoServer.encodeLine("NUMBER:" + number + ":" + sentMicros);
+            return line;
+        }
+    }
+
+    static byte[] encodeFrame(String msg) {
+        int number = numberOf(msg);
+        if (number > 0) return new byte[] {OP_NUMBER, (byte) number};
+        byte[] utf8 = msg.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[1 + varintSize(utf8.length) + utf8.length];
+        frame[0] = OP_TEXT;
+        int pos = writeVarint(frame, 1, utf8.length);
+        System.arraycopy(utf8, 0, frame, pos, utf8.length);
+        return frame;
+    }
+
+    private static byte[] encodeStamped(int number, long micros) {
+        byte[] frame = new byte[2 + varintSize(micros)];
+        frame[0] = OP_STAMPED_NUMBER;
+        frame[1] = (byte) number;
+        writeVarint(frame, 2, micros);
+        return frame;
+    }
+
+    /** n for a well-formed "NUMBER:n", otherwise -1. */
+    private static int numberOf(String msg) {
+        if (!msg.startsWith("NUMBER:")) return -1;
+        int value = 0;
+        for (int i = NUMBER_PREFIX.length; i < msg.length(); i++) {
+            char c = msg.charAt(i);
+            if (c < '0' || c > '9' || value > 75) return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value <= 75 ? value : -1;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Client-side reader for a server stream that starts as text lines and
+     * may switch to frames. next() decodes one message; NUMBER: arrives as
+     * opcode() == OP_NUMBER with number() set and no String allocated, in
+     * either mode, and stamp() holds its send time when PROTO:STAMP is on.
+     */
+    static final class Reader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[512];
+        private int pos = 0;
+        private int limit = 0;
+        private byte[] line = new byte[64];
+        private int lineLength;
+        private boolean binary = false;
+        private int opcode;
+        private int number;
+        private long stamp;
+        private String text;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /** Everything after the "PROTO:BIN" acknowledgement is framed. */
+        void switchToBinary() {
+            binary = true;
+        }
+
+        /** Asks for binary frames; call right after WELCOME, before sending the name. */
+        void requestBinary(PrintWriter out) throws IOException {
+            request(out, BINARY);
+            switchToBinary();
+        }
+
+        /** Asks for send stamps on NUMBER; call right after WELCOME, before sending the name. */
+        void requestStamps(PrintWriter out) throws IOException {
+            request(out, STAMP);
+        }
+
+        /** Asks for several cards; the server acknowledges with the count it will deal. */
+        int requestCards(PrintWriter out, int count) throws IOException {
+            out.println(CARDS + count);
+            String ack = binary ? (next() ? text() : null) : readLine();
+            if (ack == null || !ack.startsWith(CARDS)) throw new IOException("Server did not accept " + CARDS + ack);
+            return Integer.parseInt(ack.substring(CARDS.length()));
+        }
+
+        void requestAutoDaub(PrintWriter out) throws IOException {
+            request(out, AUTODAUB);
+        }
+
+        private void request(PrintWriter out, String option) throws IOException {
+            out.println(option);
+            String ack = binary ? (next() ? text() : null) : readLine();
+            if (!option.equals(ack)) throw new IOException("Server did not accept " + option + ": " + ack);
+        }
+
+        /** Reads one text line (handshake only); null at end of stream. */
+        String readLine() throws IOException {
+            if (!readLineBytes()) return null;
+            return new String(line, 0, lineLength, StandardCharsets.UTF_8);
+        }
+
+        /** Reads the next message; returns false at end of stream. */
+        boolean next() throws IOException {
+            return binary ? nextFrame() : nextLine();
+        }
+
+        int opcode() {
+            return opcode;
+        }
+
+        int number() {
+            return number;
+        }
+
+        /** Server send time of the last NUMBER in epoch microseconds, or 0 if unstamped. */
+        long stamp() {
+            return stamp;
+        }
+
+        /** The message text; for OP_NUMBER it is built on demand. */
+        String text() {
+            return opcode == OP_NUMBER ? "NUMBER:" + number : text;
+        }
+
+        private int read() throws IOException {
+            if (pos == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[pos++] & 0xFF;
+        }
+
+        private boolean nextFrame() throws IOException {
+            opcode = read();
+            if (opcode < 0) return false;
+            if (opcode == OP_NUMBER || opcode == OP_STAMPED_NUMBER) {
+                boolean stamped = opcode == OP_STAMPED_NUMBER;
+                opcode = OP_NUMBER;
+                number = read();
+                stamp = stamped ? readVarint() : 0;
+                return number >= 0 && stamp >= 0;
+            }
+            int length = (int) readVarint();
+            if (length < 0) return false;
+            byte[] utf8 = new byte[length];
+            for (int i = 0; i < length; i++) {
+                int b = read();
+                if (b < 0) return false;
+                utf8[i] = (byte) b;
+            }
+            opcode = OP_TEXT;
+            text = new String(utf8, StandardCharsets.UTF_8);
+            return true;
+        }
+
+        /** A varint, or -1 at end of stream. */
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = read();
+                if (b < 0) return -1;
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        }
+
+        private boolean nextLine() throws IOException {
+            if (!readLineBytes()) return false;
+            if (startsWithNumber()) {
+                int i = NUMBER_PREFIX.length;
+                int value = 0;
+                for (; i < lineLength && line[i] >= '0' && line[i] <= '9'; i++) {
+                    value = value * 10 + (line[i] - '0');
+                }
+                long micros = 0;
+                if (i < lineLength && line[i] == ':') {
+                    for (i++; i < lineLength && line[i] >= '0' && line[i] <= '9'; i++) {
+                        micros = micros * 10 + (line[i] - '0');
+                    }
+                }
+                opcode = OP_NUMBER;
+                number = value;
+                stamp = micros;
+            } else {
+                opcode = OP_TEXT;
+                text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+            }
+            return true;
+        }
+
+        private boolean readLineBytes() throws IOException {
+            lineLength = 0;
+            int b;
+            while ((b = read()) != '\n') {
+                if (b < 0) return lineLength > 0;
+                if (b == '\r') continue;
+                if (lineLength == line.length) line = Arrays.copyOf(line, lineLength * 2);
+                line[lineLength++] = (byte) b;
+            }
+            return true;
+        }
+
+        private boolean startsWithNumber() {
+            if (lineLength <= NUMBER_PREFIX.length) return false;
+            for (int i = 0; i < NUMBER_PREFIX.length; i++) {
+                if (line[i] != NUMBER_PREFIX[i]) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,1086 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One independent Bingo game with its own players, draws and winner. Draws
+ * run as short tasks on a scheduler shared by every room, so a room waiting
+ * for its next number holds no thread.
+ *
+ * A room moves LOBBY -> RUNNING -> FINISHED. Its phase and its seated and
+ * ready counts share one atomic word, so a ready, a join or a timer and the
+ * start it may trigger are one compare-and-set: the game starts exactly
+ * once however many readies arrive together, and no player is seated after
+ * it has started. When it starts is up to the server's StartPolicy.
+ *
+ * A game plays its --patterns stages in order. A claim is checked against
+ * the current stage's WinPattern; winning a stage that is not the last is
+ * announced with STAGE_WINNER: and play goes on with the next pattern.
+ *
+ * Claims go through a claim stage: connection threads only queue them,
+ * stamped with the number of draws so far, and one task at a time checks
+ * and ranks them (decideClaims, announceWinner). The first valid claim
+ * halts the draws at once; the stage is decided when the --claim-window
+ * after it closes. Claims on the last number get a last call, one draw
+ * interval but at least LAST_CALL_MS, before a game nobody won ends.
+ *
+ * On a shard behind BingoGateway the gateway starts the game, draws the
+ * numbers and picks the winners; the room reports its counts and valid
+ * claims and applies what it is sent (startReplicated, drawReplicated,
+ * stageWonReplicated, finishReplicated).
+ */
+class BingoRoom {
+    enum Phase { LOBBY, RUNNING, FINISHED }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final int COUNT_BITS = 30;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    // Claims the drain task decides per turn, so a flood does not hold the scheduler thread
+    private static final int CLAIM_BATCH = 256;
+    // Least time claims on the last number get before a game nobody has won ends
+    private static final long LAST_CALL_MS = 1000;
+
+    private final int id;
+    private final ScheduledExecutorService scheduler;
+    private final long drawIntervalMs;
+    private final Set<BingoServer.Player> players = ConcurrentHashMap.newKeySet();
+    private final Set<BingoServer.Player> readyPlayers = ConcurrentHashMap.newKeySet();
+    // Watchers who receive every broadcast but hold no card
+    private final Set<BingoServer.Player> spectators = ConcurrentHashMap.newKeySet();
+    // Guards joining, starting, card marking and claims; does not pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    // Whole draw order, fixed by the room's seed; drawn only by the draw task
+    private final DrawSequence draws;
+    // Phase | seated players | ready players; see word()
+    private final AtomicLong lobby = new AtomicLong(word(Phase.LOBBY, 0, 0));
+    private final StartPolicy startPolicy = BingoServer.startPolicy;
+    // Set on a gateway shard; the gateway then starts, draws and ends the game
+    private final ShardLink shard = BingoServer.shardLink;
+    // Pending countdown or scheduled start, if the policy has one running
+    private final AtomicReference<ScheduledFuture<?>> startTimer = new AtomicReference<>();
+    private volatile long startDue;
+    // Set by the first valid claim of a stage, which halts the draws until it is decided
+    private volatile boolean stopGame = false;
+    private volatile boolean paused = false;
+    // Fixed-rate draw schedule and its drift; guarded by lock
+    private ScheduledFuture<?> drawTask;
+    // Bumped whenever draws halt or are rescheduled, so a draw already queued for an old run does nothing
+    private int drawRun;
+    private long nextDrawDue;
+    private long totalDriftNanos;
+    private long maxDriftNanos;
+    private int nextSeat = 0; // guarded by lock
+    // Claims not yet checked, in arrival order; any thread adds, only decideClaims() takes
+    private final Queue<Claim> claimQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final long claimWindowMs = BingoServer.claimWindowMs;
+    // Valid claims for the current stage in arrival order (on a shard, those forwarded to the
+    // gateway and not yet given a PRIZE:), and their seats; guarded by lock
+    private final List<Claim> claimants = new ArrayList<>();
+    private final BitSet claimedSeats = new BitSet();
+    private boolean winnerAnnounced = false; // guarded by lock
+    // The patterns played in turn, and the one being played now; written under lock
+    private final WinPattern[] stages;
+    private volatile int stage = 0;
+    // Every issued card, indexed by number so a draw only touches matching cards
+    private final CardStore cards = new CardStore(16, BingoServer.offHeapCards); // guarded by lock
+    private final CardGenerator cardGenerator;
+    private final int[] cardBuffer = new int[CardStore.CELLS]; // guarded by lock
+    // owners[card] is the player holding that CardStore card; guarded by lock
+    private BingoServer.Player[] owners = new BingoServer.Player[16];
+    // Time spent marking every card and notifying AUTODAUB players, per draw; added to by
+    // whichever thread published the draw, read by metrics from any thread
+    private final LongAdder totalMarkNanos = new LongAdder();
+    private final AtomicLong maxMarkNanos = new AtomicLong();
+    // DRAWN: resync message, rebuilt at most once per draw however many clients rejoin
+    private volatile BingoProtocol.Encoded snapshot;
+    private volatile int snapshotPosition = -1;
+    // Draws whose number has gone out, which is what a claim arriving now has seen
+    private volatile int published;
+    // A restored game with valid claims but no winner announces it when resumed
+    private boolean announcePending = false; // guarded by lock
+
+    /** The seed fixes both the draw order and the cards issued, in join order, from independent streams. */
+    BingoRoom(int id, ScheduledExecutorService scheduler, long drawIntervalMs, long seed) {
+        this(id, scheduler, drawIntervalMs, seed, seed, BingoServer.stages);
+    }
+
+    /** Shards share a game's draw seed and stages but deal their cards from a seed of their own. */
+    BingoRoom(int id, ScheduledExecutorService scheduler, long drawIntervalMs, long seed, long cardSeed,
+              WinPattern[] stages) {
+        this.id = id;
+        this.scheduler = scheduler;
+        this.drawIntervalMs = drawIntervalMs;
+        this.draws = new DrawSequence(seed);
+        this.cardGenerator = CardGenerator.forGame(cardSeed, BingoServer.bingoColumns);
+        this.stages = stages.clone();
+        cards.setPattern(stages[0]);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    long getSeed() {
+        return draws.seed();
+    }
+
+    /** Draw state; safe to query from any thread. */
+    DrawSequence draws() {
+        return draws;
+    }
+
+    Phase phase() {
+        return phaseOf(lobby.get());
+    }
+
+    boolean isStarted() {
+        return phase() != Phase.LOBBY;
+    }
+
+    boolean isFinished() {
+        return phase() == Phase.FINISHED;
+    }
+
+    int playerCount() {
+        return players.size();
+    }
+
+    int readyCount() {
+        return readyOf(lobby.get());
+    }
+
+    /** Live view of the seated players, e.g. for metrics. */
+    Collection<BingoServer.Player> players() {
+        return Collections.unmodifiableSet(players);
+    }
+
+    /** Whether the pattern being played is the game's last, so its winner ends the game. */
+    boolean onLastStage() {
+        return stage == stages.length - 1;
+    }
+
+    boolean isReady(BingoServer.Player player) {
+        return readyPlayers.contains(player);
+    }
+
+    /**
+     * Adds a player and issues their cards, unless this room's game has
+     * already started. The seat is counted before the cards are dealt, under
+     * the lock startGame() also takes, so a game that starts meanwhile still
+     * sends this player its cards. The ready prompt is queued before the
+     * player joins the broadcasts, so a STARTING_IN: never overtakes it.
+     */
+    boolean join(BingoServer.Player player) {
+        int seated;
+        lock.lock();
+        try {
+            long current;
+            do {
+                current = lobby.get();
+                if (phaseOf(current) != Phase.LOBBY) return false;
+                seated = seatedOf(current) + 1;
+            } while (!lobby.compareAndSet(current, word(Phase.LOBBY, seated, readyOf(current))));
+            player.send(BingoProtocol.READY_PROMPT);
+            seat(player);
+        } finally {
+            lock.unlock();
+        }
+        if (shard != null) shard.lobby(id, seated, readyCount());
+        // A scheduled start runs from the first join, told by the timer's own broadcast;
+        // later joiners are told when it fires
+        boolean armed = seated == 1 && startPolicy.scheduled() && armStartTimer();
+        if (!armed && startTimer.get() != null) {
+            player.send(BingoProtocol.STARTING_IN + Math.max(0, (startDue - System.nanoTime()) / 1_000_000_000));
+        }
+        return true;
+    }
+
+    /** Gives the next seat its cardCount cards, with consecutive ids; called with the lock held. */
+    private void seat(BingoServer.Player player) {
+        player.seat = nextSeat++;
+        for (int k = 0; k < player.cardCount; k++) {
+            cardGenerator.next(cardBuffer, 0);
+            int card = cards.add(cardBuffer);
+            if (k == 0) player.cardId = card;
+            if (card == owners.length) owners = Arrays.copyOf(owners, owners.length * 2);
+            owners[card] = player;
+        }
+        players.add(player);
+    }
+
+    /**
+     * The draw on which the player's earliest winning card completed the
+     * pattern, if no later than position; -1 if none had. Called with the
+     * lock held.
+     */
+    private int wonAt(BingoServer.Player player, int position) {
+        int earliest = -1;
+        for (int k = 0; k < player.cardCount; k++) {
+            int card = player.cardId + k;
+            if (!cards.hasBingo(card)) continue;
+            int wonAt = cards.wonAt(card);
+            if (wonAt <= position && (earliest < 0 || wonAt < earliest)) earliest = wonAt;
+        }
+        return earliest;
+    }
+
+    /**
+     * Rebuilds a game from its journal: the same seats and cards (dealt in
+     * join order from the seed), ready players, stages won, numbers drawn
+     * and valid claims. Seats are held by placeholders until their clients
+     * RESUME.
+     * The game comes back paused, so players can reconnect before the
+     * operator resumes it from the console.
+     */
+    List<BingoServer.Player> restore(GameJournal.RoomLog log) {
+        List<BingoServer.Player> restored = new ArrayList<>();
+        lock.lock();
+        try {
+            if (log.stage >= stages.length) {
+                throw new IllegalStateException("Room " + id + ": journal is at stage " + (log.stage + 1)
+                        + " but --patterns has " + stages.length);
+            }
+            stage = log.stage;
+            cards.setPattern(stages[stage]);
+            for (int i = 0; i < log.names.size(); i++) {
+                BingoServer.Player player = new BingoServer.RecoveredPlayer(log.names.get(i), log.tokens.get(i));
+                player.cardCount = log.cardCounts.get(i);
+                player.room = this;
+                seat(player);
+                if (log.ready.get(player.seat)) readyPlayers.add(player);
+                restored.add(player);
+            }
+            for (int i = 0; i < log.drawCount; i++) {
+                int number = draws.next();
+                if (number != log.drawn[i]) {
+                    throw new IllegalStateException("Room " + id + ": journal drew " + log.drawn[i]
+                            + " where seed " + draws.seed() + " gives " + number);
+                }
+                cards.markNumber(number);
+            }
+            // Journalled claims were valid when made, which the replayed cards confirm
+            for (BingoServer.Player player : restored) {
+                int wonAt = wonAt(player, log.drawCount);
+                if (!log.validClaims.get(player.seat) || wonAt < 0) continue;
+                Claim claim = new Claim(player, log.drawCount, stage, System.nanoTime());
+                claim.wonAt = wonAt;
+                claimants.add(claim);
+                claimedSeats.set(player.seat);
+            }
+            published = log.drawCount;
+            lobby.set(word(log.started ? Phase.RUNNING : Phase.LOBBY, restored.size(), readyPlayers.size()));
+            paused = true;
+            stopGame = !claimants.isEmpty();
+            announcePending = stopGame;
+        } finally {
+            lock.unlock();
+        }
+        log("Restored " + restored.size() + " players at draw " + log.drawCount
+                + (stages.length > 1 ? ", playing for " + stages[log.stage] : "")
+                + ", paused; 'resume " + id + "' to continue.");
+        return restored;
+    }
+
+    /**
+     * Moves a seat from a dropped connection to a new one: same name, card
+     * and draw order position. If the game is running the new connection
+     * gets its card and one DRAWN: message covering every number so far, so
+     * it catches up without replaying the draws. Returns false once the game
+     * has finished.
+     */
+    boolean reconnect(BingoServer.Player previous, BingoServer.Player player) {
+        lock.lock();
+        try {
+            if (isFinished()) return false;
+            player.name = previous.name;
+            player.room = this;
+            player.cardId = previous.cardId;
+            player.cardCount = previous.cardCount;
+            for (int k = 0; k < player.cardCount; k++) owners[player.cardId + k] = player;
+            player.seat = previous.seat;
+            player.sessionToken = previous.sessionToken;
+            // A seat dropped for falling behind is counted again
+            if (!players.remove(previous)) lobbyChanged(1, 0);
+            players.add(player);
+            if (readyPlayers.remove(previous)) readyPlayers.add(player);
+            for (Claim claim : claimants) {
+                if (claim.player == previous) claim.player = player;
+            }
+            player.send("RESUMED:" + player.name);
+            if (isStarted()) {
+                for (int k = 0; k < player.cardCount; k++) player.send(cards.toProtocol(player.cardId + k));
+                player.send(BingoProtocol.PATTERN + stages[stage]);
+                player.deliver(snapshot());
+                // WIN: notices sent while the player was away are not replayed by the snapshot
+                for (int k = 0; player.autoDaub && k < player.cardCount; k++) {
+                    if (cards.hasBingo(player.cardId + k)) player.send(BingoProtocol.WIN + k);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        previous.abort();
+        return true;
+    }
+
+    /** Adds a watcher who gets the drawn numbers so far and every broadcast after. */
+    boolean addSpectator(BingoServer.Player player) {
+        lock.lock();
+        try {
+            if (isFinished()) return false;
+            player.room = this;
+            player.name = "spectator";
+            spectators.add(player);
+            player.send("SPECTATING:" + id);
+            if (isStarted()) player.deliver(snapshot());
+        } finally {
+            lock.unlock();
+        }
+        log("A spectator joined.");
+        return true;
+    }
+
+    /**
+     * The DRAWN: bitmap of numbers drawn so far, shared by every client that
+     * resyncs before the next draw. Called with the lock held, which the draw
+     * also takes, so the bitmap cannot change while it is read.
+     */
+    private BingoProtocol.Encoded snapshot() {
+        int position = draws.position();
+        if (snapshot == null || snapshotPosition != position) {
+            snapshot = BingoProtocol.Encoded.of(BingoProtocol.drawnMessage(draws.drawnLow(), draws.drawnHigh()));
+            snapshotPosition = position;
+            BingoMetrics.increment(BingoMetrics.snapshotsBuilt);
+        }
+        return snapshot;
+    }
+
+    /** Marks a player ready; repeated readies are ignored. Takes no lock. */
+    void playerReady(BingoServer.Player player) {
+        if (!readyPlayers.add(player)) return;
+        log(player.getName() + " is ready.");
+        GameJournal.ready(id, player.seat);
+        lobbyChanged(0, 1);
+    }
+
+    private static long word(Phase phase, int seated, int ready) {
+        return (long) phase.ordinal() << 2 * COUNT_BITS | (long) seated << COUNT_BITS | ready;
+    }
+
+    private static Phase phaseOf(long word) {
+        return PHASES[(int) (word >>> 2 * COUNT_BITS)];
+    }
+
+    private static int seatedOf(long word) {
+        return (int) (word >>> COUNT_BITS & COUNT_MASK);
+    }
+
+    private static int readyOf(long word) {
+        return (int) (word & COUNT_MASK);
+    }
+
+    /**
+     * Applies a change in seated or ready players. In the lobby the same
+     * compare-and-set also moves the room to RUNNING when the policy says
+     * so, and only the caller whose update did that starts the game.
+     */
+    private void lobbyChanged(int seatedDelta, int readyDelta) {
+        long current, next;
+        int seated, ready;
+        boolean start;
+        do {
+            current = lobby.get();
+            Phase phase = phaseOf(current);
+            // Counts are reset when the room closes
+            if (phase == Phase.FINISHED) return;
+            seated = seatedOf(current) + seatedDelta;
+            ready = readyOf(current) + readyDelta;
+            start = phase == Phase.LOBBY && startPolicy.startsNow(seated, ready);
+            next = word(start ? Phase.RUNNING : phase, seated, ready);
+        } while (!lobby.compareAndSet(current, next));
+
+        if (shard != null && phaseOf(next) == Phase.LOBBY) shard.lobby(id, seated, ready);
+        if (start) {
+            startGame();
+        } else if (phaseOf(next) == Phase.LOBBY && startPolicy.kind == StartPolicy.Kind.MIN) {
+            if (startPolicy.countsDown(seated, ready)) {
+                armStartTimer();
+            } else {
+                cancelStartTimer();
+            }
+        }
+    }
+
+    /**
+     * Starts the policy's countdown or scheduled start unless one is
+     * already pending. Racing callers may each schedule one; all but the
+     * first cancel theirs. The timer re-checks the counts when it fires,
+     * so a countdown armed on stale counts is harmless. Returns whether this
+     * call armed the timer, and so announced it.
+     */
+    private boolean armStartTimer() {
+        if (startTimer.get() != null) return false;
+        long delay = startPolicy.timerMillis();
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        ScheduledFuture<?> timer = scheduler.schedule(this::startTimerFired, delay, TimeUnit.MILLISECONDS);
+        if (!startTimer.compareAndSet(null, timer)) {
+            timer.cancel(false);
+            return false;
+        }
+        startDue = due;
+        log("Game starts in " + delay / 1000 + " s (" + startPolicy + ").");
+        broadcast(BingoProtocol.STARTING_IN + delay / 1000);
+        return true;
+    }
+
+    private void cancelStartTimer() {
+        ScheduledFuture<?> timer = startTimer.getAndSet(null);
+        if (timer == null) return;
+        timer.cancel(false);
+        log("Countdown cancelled.");
+        broadcast(BingoProtocol.START_CANCELLED);
+    }
+
+    /** Starts the game if the policy still agrees, with whoever is seated; otherwise waits again. */
+    private void startTimerFired() {
+        startTimer.set(null);
+        long current;
+        boolean start;
+        do {
+            current = lobby.get();
+            if (phaseOf(current) != Phase.LOBBY) return;
+            start = startPolicy.startsOnTimer(seatedOf(current), readyOf(current));
+            if (!start) break;
+        } while (!lobby.compareAndSet(current, word(Phase.RUNNING, seatedOf(current), readyOf(current))));
+
+        if (start) {
+            startGame();
+        } else if (startPolicy.scheduled()) {
+            log("Nobody joined before the scheduled start; waiting for the next one.");
+            armStartTimer();
+        } else {
+            log("Countdown cancelled.");
+            broadcast(BingoProtocol.START_CANCELLED);
+        }
+    }
+
+
+    /**
+     * Queues a claim for the claim stage, stamped with the number of draws
+     * published and the stage when it arrived. Connection threads only add
+     * to a lock-free queue, so a flood of claims never contends with the
+     * draws for the room's lock; drainClaims() decides them on the scheduler.
+     */
+    void bingoClaimed(BingoServer.Player player) {
+        log(player.getName() + " claims BINGO!");
+        BingoMetrics.increment(BingoMetrics.claims);
+        claimQueue.add(new Claim(player, published, stage, System.nanoTime()));
+        // Cleared by the drain before it polls, so a claim queued meanwhile is never stranded
+        if (drainScheduled.compareAndSet(false, true)) scheduler.execute(this::drainClaims);
+    }
+
+    /** A BINGO as it arrived: who, after how many draws, for which stage and when. */
+    private static final class Claim {
+        BingoServer.Player player; // moved to the new connection on RESUME
+        final int position;
+        final int stage;
+        final long receivedNanos;
+        int wonAt; // once valid: the draw on which the player's earliest winning card completed
+
+        Claim(BingoServer.Player player, int position, int stage, long receivedNanos) {
+            this.player = player;
+            this.position = position;
+            this.stage = stage;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    /** The claim stage's task: decides up to CLAIM_BATCH queued claims and queues itself again for the rest. */
+    private void drainClaims() {
+        drainScheduled.set(false);
+        decideClaims(CLAIM_BATCH);
+        if (!claimQueue.isEmpty() && drainScheduled.compareAndSet(false, true)) scheduler.execute(this::drainClaims);
+    }
+
+    /**
+     * The claim stage, and the only code that decides claims: checks up to
+     * limit queued claims under one hold of the lock. A claim counts only
+     * for a card completed by the numbers drawn when it arrived, so a BINGO
+     * sent early is not rescued by a later draw. The first valid claim of a
+     * stage halts the draws at once and opens the claim window; claims for
+     * a stage already decided are too late and rejected. Run by the drain
+     * task, and by every draw before it takes its number.
+     */
+    private void decideClaims(int limit) {
+        List<Claim> rejected = new ArrayList<>();
+        boolean opened = false;
+        lock.lock();
+        try {
+            Claim claim;
+            for (int n = 0; n < limit && (claim = claimQueue.poll()) != null; n++) {
+                opened |= check(claim, rejected);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (opened && claimWindowMs > 0) {
+            scheduler.schedule(this::announceWinner, claimWindowMs, TimeUnit.MILLISECONDS);
+        } else if (opened) {
+            // Before the rejections, so a flood of bad claims does not hold up the winners
+            announceWinner();
+        }
+        reject(rejected);
+    }
+
+    /**
+     * Checks one claim, adding it to the stage's claimants or to rejected.
+     * A seat counts once per stage: once it has a valid claim, its repeats
+     * are ignored rather than answered, as that first claim gets the
+     * PRIZE: or INVALID_BINGO. On a shard the claim is also forwarded to
+     * the gateway, which picks the winners. Returns true for the stage's
+     * first valid claim, having halted the draws. Called with the lock held.
+     */
+    private boolean check(Claim claim, List<Claim> rejected) {
+        BingoServer.Player player = claim.player;
+        if (claim.stage != stage || winnerAnnounced || isFinished()) {
+            rejected.add(claim);
+            return false;
+        }
+        if (claimedSeats.get(player.seat)) return false;
+        int wonAt = wonAt(player, claim.position);
+        GameJournal.claim(id, player.seat, wonAt >= 0);
+        if (wonAt < 0) {
+            rejected.add(claim);
+            return false;
+        }
+        claimedSeats.set(player.seat);
+        claim.wonAt = wonAt;
+        claimants.add(claim);
+        if (shard != null) {
+            // The gateway collects claims from every shard and picks the winners
+            shard.claim(id, stage, wonAt, player.seat, player.getName());
+            return false;
+        }
+        if (stopGame) return false;
+        stopGame = true;
+        haltDraws();
+        return true;
+    }
+
+    /** Answers claims that lost: invalid, too late, or for a card completed after the winners'. */
+    private void reject(List<Claim> rejected) {
+        for (Claim claim : rejected) {
+            log(claim.player.getName() + "'s claim was rejected.");
+            BingoMetrics.increment(BingoMetrics.invalidClaims);
+            claim.player.send("INVALID_BINGO");
+        }
+    }
+
+    /**
+     * Closes the claim window and announces the stage. Claims queued before
+     * it closed are decided first, however many there are; any queued after
+     * are too late. The valid claims whose cards completed on the earliest
+     * draw are co-winners, ranked by arrival; each is sent PRIZE: with their
+     * share of the --prize, and the best ranked is named in STAGE_WINNER: or
+     * WINNER:. Every other claim but a seat's repeats is answered
+     * INVALID_BINGO. The last stage's winners end the game; any other moves
+     * play on.
+     */
+    private void announceWinner() {
+        List<Claim> winners;
+        List<Claim> rejected = new ArrayList<>();
+        WinPattern won;
+        boolean last;
+        List<Notice> notices = null;
+        lock.lock();
+        try {
+            if (claimants.isEmpty() || isFinished()) return;
+            long closedAt = System.nanoTime();
+            Claim queued;
+            // Every taker of the queue holds the lock, so the claim peeked is the one polled
+            while ((queued = claimQueue.peek()) != null && queued.receivedNanos - closedAt <= 0) {
+                check(claimQueue.poll(), rejected);
+            }
+            int first = Integer.MAX_VALUE;
+            for (Claim claim : claimants) first = Math.min(first, claim.wonAt);
+            winners = new ArrayList<>();
+            for (Claim claim : claimants) {
+                if (claim.wonAt == first) {
+                    winners.add(claim);
+                } else {
+                    rejected.add(claim);
+                }
+            }
+            won = stages[stage];
+            last = onLastStage();
+            GameJournal.winner(id, winners.get(0).player.seat, stage, last);
+            if (last) {
+                winnerAnnounced = true;
+            } else {
+                notices = nextStage();
+                if (!paused) scheduleDraws();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long now = System.nanoTime();
+        for (int rank = 1; rank <= winners.size(); rank++) {
+            Claim claim = winners.get(rank - 1);
+            BingoMetrics.record(BingoMetrics.claimSettleNanos, now - claim.receivedNanos);
+            claim.player.send(BingoProtocol.prize(rank, winners.size(), BingoServer.prize));
+        }
+        String winner = winners.get(0).player.getName();
+        if (winners.size() > 1) log(winner + " shares the " + won + " stage with " + (winners.size() - 1) + " more.");
+        if (last) {
+            broadcast("WINNER:" + winner);
+            log("Game stopped due to a BINGO winner.");
+            // Before the room closes, which flushes and closes every connection
+            reject(rejected);
+            cleanupGame();
+            return;
+        }
+        log(winner + " won the " + won + " stage; playing for " + stages[stage] + ".");
+        announceStage(won, winner, notices);
+        reject(rejected);
+    }
+
+    /**
+     * Moves to the next stage and returns the AUTODAUB notices for cards
+     * that already match, or come one number short of, its pattern. Claims
+     * for the stage just won no longer count. Called with the lock held.
+     */
+    private List<Notice> nextStage() {
+        stage++;
+        claimants.clear();
+        claimedSeats.clear();
+        stopGame = false;
+        int winners = cards.setPattern(stages[stage]);
+        int near = cards.newNearCount();
+        return winners + near > 0 ? autoDaubNotices(winners, near) : null;
+    }
+
+    private void announceStage(WinPattern won, String winner, List<Notice> notices) {
+        broadcast(BingoProtocol.STAGE_WINNER + won + ":" + winner);
+        broadcast(BingoProtocol.PATTERN + stages[stage]);
+        if (notices != null) {
+            for (Notice notice : notices) notice.player.send(notice.message);
+        }
+    }
+
+    /** A disconnected player keeps their seat, for RESUME, but is no longer ready. */
+    void playerLeft(BingoServer.Player player) {
+        if (readyPlayers.remove(player)) lobbyChanged(0, -1);
+        spectators.remove(player);
+    }
+
+    /** Forgets a player entirely, e.g. one disconnected for falling behind. */
+    void playerDropped(BingoServer.Player player) {
+        if (!players.remove(player)) return;
+        lobbyChanged(-1, readyPlayers.remove(player) ? -1 : 0);
+    }
+
+    void broadcast(String msg) {
+        broadcast(BingoProtocol.Encoded.of(msg));
+    }
+
+    /** Queues the same encoded message to every player in the room, text or binary as each negotiated. */
+    void broadcast(BingoProtocol.Encoded msg) {
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (BingoServer.Player player : players) {
+            player.deliver(msg);
+            recipients++;
+        }
+        for (BingoServer.Player spectator : spectators) {
+            spectator.deliver(msg);
+            recipients++;
+        }
+        BingoMetrics.add(BingoMetrics.messagesQueued, recipients);
+        BingoMetrics.record(BingoMetrics.broadcastNanos, System.nanoTime() - start);
+    }
+
+    /** Runs once, for the caller that moved the room to RUNNING. */
+    private void startGame() {
+        ScheduledFuture<?> timer = startTimer.getAndSet(null);
+        if (timer != null) timer.cancel(false);
+        GameJournal.start(id);
+        long counts = lobby.get();
+        log("Game started with " + readyOf(counts) + " of " + seatedOf(counts)
+                + " players ready! (seed " + draws.seed() + ")");
+        BingoMetrics.increment(BingoMetrics.gamesStarted);
+        for (BingoServer.Player player : players) {
+            String[] sheet = new String[player.cardCount];
+            lock.lock();
+            try {
+                for (int k = 0; k < sheet.length; k++) sheet[k] = cards.toProtocol(player.cardId + k);
+            } finally {
+                lock.unlock();
+            }
+            for (String card : sheet) player.send(card);
+        }
+        broadcast(BingoProtocol.PATTERN + stages[0]);
+        broadcast("GAME_START");
+        if (shard != null) return;
+
+        lock.lock();
+        try {
+            scheduleDraws();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Starts the game on the gateway's word, ready players or not; false if it already started. */
+    boolean startReplicated() {
+        long current;
+        do {
+            current = lobby.get();
+            if (phaseOf(current) != Phase.LOBBY) return false;
+        } while (!lobby.compareAndSet(current, word(Phase.RUNNING, seatedOf(current), readyOf(current))));
+        startGame();
+        return true;
+    }
+
+    /**
+     * Applies a number drawn by the gateway, stamped with the gateway's draw
+     * time. Every shard derives the same order from the game's seed, so a
+     * number out of that order means the shards have diverged.
+     */
+    void drawReplicated(int number, long drawnMicros) {
+        List<Notice> notices;
+        long markNanos;
+        int position;
+        lock.lock();
+        try {
+            if (phase() != Phase.RUNNING || !draws.hasNext()) return;
+            int expected = draws.next();
+            if (number != expected) {
+                throw new IllegalStateException("Room " + id + ": gateway drew " + number
+                        + " where seed " + draws.seed() + " gives " + expected);
+            }
+            GameJournal.draw(id, number);
+            position = draws.position();
+            long markStart = System.nanoTime();
+            notices = mark(number);
+            markNanos = System.nanoTime() - markStart;
+        } finally {
+            lock.unlock();
+        }
+        publish(BingoProtocol.Encoded.number(number, drawnMicros), number, position, notices, markNanos);
+    }
+
+    /** Moves on from a stage the gateway says was won; stale or repeated decisions are ignored. */
+    void stageWonReplicated(int wonStage, String winner) {
+        WinPattern won;
+        List<Notice> notices;
+        List<Claim> lost;
+        lock.lock();
+        try {
+            if (phase() != Phase.RUNNING || wonStage != stage || onLastStage()) return;
+            won = stages[stage];
+            // The gateway sends a stage's PRIZE: lines before it, so claims still here lost
+            lost = new ArrayList<>(claimants);
+            notices = nextStage();
+        } finally {
+            lock.unlock();
+        }
+        announceStage(won, winner, notices);
+        reject(lost);
+    }
+
+    /** Sends a co-winner on this shard, by seat, the PRIZE: line for their share. */
+    void prizeReplicated(int seat, String prize) {
+        lock.lock();
+        try {
+            claimants.removeIf(claim -> claim.player.seat == seat);
+            for (BingoServer.Player player : players) {
+                if (player.seat == seat) player.send(prize);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the game as the gateway decided: with its winner, or with none
+     * after 75 numbers. Claims forwarded for the last stage that got no
+     * PRIZE: are answered INVALID_BINGO before the room closes.
+     */
+    void finishReplicated(String winner) {
+        lock.lock();
+        try {
+            if (phase() == Phase.FINISHED) return;
+            winnerAnnounced = true;
+            if (winner != null) broadcast("WINNER:" + winner);
+            reject(new ArrayList<>(claimants));
+            claimants.clear();
+            cleanupGame();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Draws at a fixed rate, so broadcast time does not push later numbers
+     * back. An interval of 0 is turbo mode: draws run back to back, each
+     * resubmitted so other rooms on the scheduler still get a turn.
+     * Once every number is out it schedules the last call instead.
+     * Called with the lock held.
+     */
+    private void scheduleDraws() {
+        int run = ++drawRun;
+        if (!draws.hasNext()) {
+            // Claims on the last number still count: they get a draw interval, and at least LAST_CALL_MS
+            scheduler.schedule(() -> lastCall(run), Math.max(drawIntervalMs, LAST_CALL_MS), TimeUnit.MILLISECONDS);
+            return;
+        }
+        nextDrawDue = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drawIntervalMs);
+        if (drawIntervalMs > 0) {
+            drawTask = scheduler.scheduleAtFixedRate(() -> scheduledDraw(run),
+                    drawIntervalMs, drawIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.execute(() -> turboDraw(run));
+        }
+    }
+
+    /** Stops the current run of draws; a draw of it already queued finds it stale. Called with the lock held. */
+    private void haltDraws() {
+        drawRun++;
+        if (drawTask != null) drawTask.cancel(false);
+    }
+
+    private void scheduledDraw(int run) {
+        try {
+            // A run that stopped has had its task cancelled already
+            drawNext(run);
+        } catch (RuntimeException e) {
+            log(BingoLog.Level.ERROR, "Draw failed: " + e);
+        }
+    }
+
+    private void turboDraw(int run) {
+        if (drawNext(run)) scheduler.execute(() -> turboDraw(run));
+    }
+
+    /**
+     * Ends a game whose numbers have all been drawn and whose claims are in,
+     * with no winner, unless one of those claims is valid: then the claim
+     * window runs as after any other draw, and announceWinner() ends the
+     * game or plays the next stage out with the numbers already drawn.
+     */
+    private void lastCall(int run) {
+        decideClaims(Integer.MAX_VALUE);
+        lock.lock();
+        try {
+            if (run != drawRun || isFinished() || paused) return;
+        } finally {
+            lock.unlock();
+        }
+        log("All numbers drawn, no winner.");
+        cleanupGame();
+    }
+
+    /** Draws one number of the given run; returns false once the run has stopped or every number is out. */
+    private boolean drawNext(int run) {
+        int number;
+        int position;
+        long markNanos;
+        List<Notice> notices;
+        // No number is drawn past a claim made before it; a valid one halts this run
+        if (!claimQueue.isEmpty()) decideClaims(Integer.MAX_VALUE);
+        lock.lock();
+        try {
+            if (run != drawRun || isFinished() || paused) return false;
+
+            if (drawIntervalMs > 0) {
+                // How late this draw runs against the fixed schedule
+                long drift = Math.max(0, System.nanoTime() - nextDrawDue);
+                totalDriftNanos += drift;
+                maxDriftNanos = Math.max(maxDriftNanos, drift);
+                BingoMetrics.record(BingoMetrics.drawDriftNanos, drift);
+                nextDrawDue += TimeUnit.MILLISECONDS.toNanos(drawIntervalMs);
+            }
+
+            number = draws.next();
+            position = draws.position();
+            GameJournal.draw(id, number);
+            if (!draws.hasNext()) {
+                // That was the last number; stop this run and wait for its claims
+                haltDraws();
+                scheduleDraws();
+            }
+
+            // Marked before the number goes out, so a claim can never race its draw
+            long markStart = System.nanoTime();
+            notices = mark(number);
+            markNanos = System.nanoTime() - markStart;
+        } finally {
+            lock.unlock();
+        }
+
+        publish(BingoProtocol.Encoded.of("NUMBER:" + number), number, position, notices, markNanos);
+        return draws.hasNext();
+    }
+
+    /** Marks a drawn number on every card; returns the NEAR:/WIN: notices, if any. Called with the lock held. */
+    private List<Notice> mark(int number) {
+        int winners = cards.markNumber(number);
+        int near = cards.newNearCount();
+        return winners + near > 0 ? autoDaubNotices(winners, near) : null;
+    }
+
+    /**
+     * Sends the number drawn at the given position to the room, then its
+     * notices, and records the draw's marking time.
+     */
+    private void publish(BingoProtocol.Encoded message, int number, int position, List<Notice> notices,
+            long markNanos) {
+        // Before the broadcast, so no claim the number prompted is stamped earlier
+        published = position;
+        broadcast(message);
+        // After the number, so a client always sees NUMBER before the NEAR:/WIN: it caused
+        if (notices != null) {
+            long sendStart = System.nanoTime();
+            for (Notice notice : notices) notice.player.send(notice.message);
+            markNanos += System.nanoTime() - sendStart;
+        }
+        totalMarkNanos.add(markNanos);
+        maxMarkNanos.accumulateAndGet(markNanos, Math::max);
+        BingoMetrics.record(BingoMetrics.drawMarkNanos, markNanos);
+        BingoMetrics.increment(BingoMetrics.numbersDrawn);
+        if (BingoLog.enabled(BingoLog.Level.DEBUG)) log(BingoLog.Level.DEBUG, "Sent number: " + number);
+    }
+
+    /** A NEAR:/WIN: message for one AUTODAUB player. */
+    private static final class Notice {
+        final BingoServer.Player player;
+        final String message;
+
+        Notice(BingoServer.Player player, String message) {
+            this.player = player;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Turns the cards that just won or came within one number of a line
+     * into messages for their owners, for owners who asked for AUTODAUB.
+     * Cards are numbered per player in the order their CARD: lines were
+     * sent. Called with the lock held.
+     */
+    private List<Notice> autoDaubNotices(int winners, int near) {
+        List<Notice> notices = new ArrayList<>(winners + near);
+        int[] won = cards.newWinners();
+        for (int i = 0; i < winners; i++) {
+            BingoServer.Player owner = owners[won[i]];
+            if (owner.autoDaub) notices.add(new Notice(owner, BingoProtocol.WIN + (won[i] - owner.cardId)));
+        }
+        int[] close = cards.newNear();
+        for (int i = 0; i < near; i++) {
+            BingoServer.Player owner = owners[close[i]];
+            if (owner.autoDaub) notices.add(new Notice(owner, BingoProtocol.NEAR + (close[i] - owner.cardId)));
+        }
+        return notices;
+    }
+
+    /** Mean and worst time per draw spent marking every card and notifying AUTODAUB players. */
+    double averageMarkMicros() {
+        int drawn = draws.position();
+        return drawn == 0 ? 0 : totalMarkNanos.sum() / 1e3 / drawn;
+    }
+
+    double maxMarkMicros() {
+        return maxMarkNanos.get() / 1e3;
+    }
+
+    /** Stops drawing until resume(); returns false if the game is not running. */
+    boolean pause() {
+        lock.lock();
+        try {
+            // A shard's draws belong to the gateway
+            if (phase() != Phase.RUNNING || paused || shard != null) return false;
+            paused = true;
+            haltDraws();
+        } finally {
+            lock.unlock();
+        }
+        log("Game paused.");
+        broadcast("GAME_PAUSED");
+        return true;
+    }
+
+    /** Restarts drawing one full interval from now; returns false if not paused. */
+    boolean resume() {
+        boolean announce;
+        lock.lock();
+        try {
+            if (!paused || isFinished()) return false;
+            paused = false;
+            announce = announcePending;
+            announcePending = false;
+            // While a claim is being decided the draws stay halted; announceWinner() restarts them
+            if (!stopGame) scheduleDraws();
+        } finally {
+            lock.unlock();
+        }
+        log("Game resumed.");
+        broadcast("GAME_RESUMED");
+        if (announce) scheduler.execute(this::announceWinner);
+        return true;
+    }
+
+    /** Mean and worst lateness of draws against their fixed-rate schedule. */
+    double averageDriftMillis() {
+        int drawn = draws.position();
+        return drawn == 0 ? 0 : totalDriftNanos / 1e6 / drawn;
+    }
+
+    double maxDriftMillis() {
+        return maxDriftNanos / 1e6;
+    }
+
+    /**
+     * Closes the room, once: a winner, a last call and the gateway's word
+     * can each end the game on their own thread, and only the caller whose
+     * compare-and-set moves the room to FINISHED cleans up.
+     */
+    private void cleanupGame() {
+        long current;
+        do {
+            current = lobby.get();
+            if (phaseOf(current) == Phase.FINISHED) return;
+        } while (!lobby.compareAndSet(current, word(Phase.FINISHED, 0, 0)));
+        if (drawTask != null) drawTask.cancel(false);
+        for (BingoServer.Player player : players) {
+            BingoServer.endSession(player);
+            player.close();
+        }
+        for (BingoServer.Player spectator : spectators) {
+            spectator.close();
+        }
+        players.clear();
+        readyPlayers.clear();
+        spectators.clear();
+        GameJournal.end(id);
+        BingoMetrics.increment(BingoMetrics.gamesFinished);
+        BingoServer.roomFinished(this);
+        log(String.format("Room closed. Draw drift avg %.2f ms, max %.2f ms."
+                        + " Marking %d cards avg %.1f us, max %.1f us per draw.",
+                averageDriftMillis(), maxDriftMillis(), cards.size(), averageMarkMicros(), maxMarkMicros()));
+    }
+
+    private void log(String msg) {
+        log(BingoLog.Level.INFO, msg);
+    }
+
+    private void log(BingoLog.Level level, String msg) {
+        if (BingoLog.enabled(level)) BingoLog.log(level, "[Room " + id + "] " + msg);
+    }
+}
@@ -1,159 +1,671 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class BingoServer {
-    private static final int PORT = 12345;
-    private static List<ClientHandler> clients = Collections.synchronizedList(new ArrayList<>());
-    private static Set<ClientHandler> readyClients = Collections.synchronizedSet(new HashSet<>());
-    private static Set<Integer> drawnNumbers = new HashSet<>();
-    private static Random random = new Random();
-    private static volatile boolean gameStarted = false;
-    private static volatile boolean stopGame = false;
+    static final int PORT = 12345;
+    private static final int LINE_BUFFER = 256;
+    // Longest client line kept, in bytes on NIO and chars here; the rest of a longer line is dropped
+    static final int MAX_LINE = 1024;
+    // Pending-connection queue; the default of 50 overflows when hundreds of players connect at once
+    static final int ACCEPT_BACKLOG = 1024;
+    static long drawIntervalMs = 3000;
+
+    // Every room's draws run on this shared pool instead of a sleeping thread per game
+    static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "bingo-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static final Map<Integer, BingoRoom> rooms = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextRoomId = new AtomicInteger();
+    // Guards openRoom, the room new connections are placed in until it starts
+    private static final ReentrantLock lobbyLock = new ReentrantLock();
+    private static final Condition roomOpened = lobbyLock.newCondition();
+    private static BingoRoom openRoom;
+    // Session token -> the player currently holding that seat, until its game ends
+    private static final Map<String, Player> sessions = new ConcurrentHashMap<>();
+    private static final SecureRandom tokenRandom = new SecureRandom();
+    private static boolean virtualThreads = false;
+
+    /** What to do with a player whose outbound queue is full. */
+    enum OverflowPolicy { DROP, DISCONNECT }
+
+    static int queueCapacity = 256;
+    static int maxCardsPerPlayer = 36;
+    static StartPolicy startPolicy = StartPolicy.ALL;
+    // The win patterns every game plays in turn; a shard's come from the gateway
+    static WinPattern[] stages = {WinPattern.LINE};
+    // How long a room keeps taking claims after the first valid one, and the points its winners share
+    static long claimWindowMs = 0;
+    static int prize = 100;
+    static OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    static boolean offHeapCards = false;
+    static boolean bingoColumns = false;
+    private static Long replaySeed = null;
+    // Set with --shard-of; the gateway then opens, starts and draws every room
+    static ShardLink shardLink;
 
     public static void main(String[] args) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(PORT);
-        System.out.println("Bingo Server started on port " + PORT);
+        List<String> options = Arrays.asList(args);
+        virtualThreads = options.contains("--virtual");
+        offHeapCards = options.contains("--offheap-cards");
+        bingoColumns = options.contains("--bingo-columns");
+        drawIntervalMs = Long.parseLong(optionValue(args, "--interval", "3000"));
+        String seed = optionValue(args, "--seed", null);
+        if (seed != null) replaySeed = Long.parseLong(seed);
+        queueCapacity = Integer.parseInt(optionValue(args, "--queue", "256"));
+        maxCardsPerPlayer = Integer.parseInt(optionValue(args, "--max-cards", "36"));
+        startPolicy = StartPolicy.parse(optionValue(args, "--start", "all"));
+        stages = WinPattern.parseStages(optionValue(args, "--patterns", "line"));
+        claimWindowMs = Long.parseLong(optionValue(args, "--claim-window", "0"));
+        prize = Integer.parseInt(optionValue(args, "--prize", "100"));
+        ConnectionManager.handshakeTimeoutMs = Long.parseLong(optionValue(args, "--handshake-timeout", "30000"));
+        ConnectionManager.heartbeatMs = Long.parseLong(optionValue(args, "--heartbeat", "15000"));
+        ConnectionManager.idleTimeoutMs = Long.parseLong(optionValue(args, "--idle-timeout", "45000"));
+        overflowPolicy = OverflowPolicy.valueOf(optionValue(args, "--overflow", "disconnect").toUpperCase());
+        BingoLog.setLevel(BingoLog.Level.valueOf(optionValue(args, "--log", "info").toUpperCase()));
+        if (virtualThreads && !Threads.virtualSupported()) {
+            BingoLog.warn("Virtual threads need Java 21+, falling back to platform threads.");
+        }
+        String metricsPort = optionValue(args, "--metrics", null);
+        if (metricsPort != null) BingoMetrics.startHttp(Integer.parseInt(metricsPort));
+        int port = Integer.parseInt(optionValue(args, "--port", String.valueOf(PORT)));
+        String gateway = optionValue(args, "--shard-of", null);
+        String journal = optionValue(args, "--journal", null);
+        if (gateway != null) {
+            if (journal != null) BingoLog.warn("--journal is not supported on a shard; ignoring it.");
+            startPolicy = StartPolicy.EXTERNAL;
+            shardLink = ShardLink.connect(gateway, port);
+            // Rooms pick up shardLink when they are built, so it is set before the first OPEN
+            shardLink.start();
+        } else if (journal != null) {
+            recover(Path.of(journal), Long.parseLong(optionValue(args, "--journal-sync", "0")));
+        }
+
+        startConsole();
+
+        if (options.contains("--nio")) {
+            // Single selector thread instead of one thread per client
+            new BingoNioServer(port).run();
+            return;
+        }
+
+        ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+        BingoLog.info("Bingo Server started on port " + port
+                + (virtualThreads ? " (virtual threads)" : ""));
 
         while (true) {
             Socket clientSocket = serverSocket.accept();
-            if (gameStarted) {
-                PrintWriter tempOut = new PrintWriter(clientSocket.getOutputStream(), true);
-                tempOut.println("GAME_IN_PROGRESS");
-                clientSocket.close();
-                continue;
+            BingoMetrics.increment(BingoMetrics.connectionsOpened);
+            ClientHandler handler = new ClientHandler(clientSocket);
+            ConnectionManager.watch(handler);
+            Threads.start(handler, virtualThreads);
+        }
+    }
+
+    /**
+     * Operator commands on the server's standard input:
+     * "rooms", "pause <room>" and "resume <room>".
+     */
+    private static void startConsole() {
+        Thread console = new Thread(() -> {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] parts = line.trim().split("\\s+");
+                    BingoRoom room = null;
+                    if (parts.length > 1 && parts[1].matches("\\d+")) room = rooms.get(Integer.parseInt(parts[1]));
+                    if (parts[0].equals("rooms")) {
+                        for (BingoRoom r : rooms.values()) {
+                            System.out.println("Room " + r.getId() + ": " + r.playerCount() + " players, "
+                                    + r.draws().position() + " numbers drawn");
+                        }
+                    } else if (parts[0].equals("pause") && room != null) {
+                        if (!room.pause()) System.out.println("Room " + room.getId() + " is not running.");
+                    } else if (parts[0].equals("resume") && room != null) {
+                        if (!room.resume()) System.out.println("Room " + room.getId() + " is not paused.");
+                    } else if (!parts[0].isEmpty()) {
+                        System.out.println("Commands: rooms | pause <room> | resume <room>");
+                    }
+                }
+            } catch (IOException e) {
+                BingoLog.warn("Console stopped: " + e.getMessage());
             }
+        }, "bingo-console");
+        console.setDaemon(true);
+        console.start();
+    }
 
-            ClientHandler handler = new ClientHandler(clientSocket);
-            clients.add(handler);
-            new Thread(handler).start();
+    /** Value of a "--name=value" option, or the default when absent. */
+    static String optionValue(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) return arg.substring(name.length() + 1);
         }
+        return defaultValue;
     }
 
-    private static void startGame() {
-        if (gameStarted) return;
-        gameStarted = true;
-        stopGame = false;
-        drawnNumbers.clear();
+    static byte[] encodeLine(String msg) {
+        return (msg + "\n").getBytes(StandardCharsets.UTF_8);
+    }
 
-        new Thread(() -> {
-            System.out.println("All players ready. Game started!");
-            broadcast("GAME_START");
+    /**
+     * Seats a named player in the open room and opens their session. Once
+     * that room's game has started, the next player opens a fresh room
+     * instead of being turned away.
+     */
+    static BingoRoom joinLobby(Player player) {
+        player.sessionToken = newSessionToken();
+        lobbyLock.lock();
+        try {
+            if (shardLink != null) {
+                // The gateway opens every room, the next one before the current one starts
+                while (openRoom == null || !openRoom.join(player)) roomOpened.awaitUninterruptibly();
+            } else if (openRoom == null || !openRoom.join(player)) {
+                int id = nextRoomId.incrementAndGet();
+                openRoom = new BingoRoom(id, scheduler, drawIntervalMs, roomSeed(id));
+                rooms.put(openRoom.getId(), openRoom);
+                GameJournal.room(id, openRoom.getSeed());
+                openRoom.join(player);
+            }
+            player.room = openRoom;
+            // Journaled under the lobby lock, so replaying joins in order deals the same cards
+            GameJournal.join(openRoom.getId(), player.seat, player.name, player.sessionToken, player.cardCount);
+        } finally {
+            lobbyLock.unlock();
+        }
+        sessions.put(player.sessionToken, player);
+        return player.room;
+    }
 
-            try {
-                while (!stopGame && drawnNumbers.size() < 75) {
-                    Thread.sleep(3000);
+    private static String newSessionToken() {
+        byte[] token = new byte[16];
+        tokenRandom.nextBytes(token);
+        String random = HexFormat.of().formatHex(token);
+        return shardLink != null ? shardLink.sessionToken(random) : random;
+    }
+
+    /** Opens the gateway's next game on this shard; later joins go to it. */
+    static void openShardRoom(int id, long seed, long cardSeed, WinPattern[] gameStages) {
+        lobbyLock.lock();
+        try {
+            openRoom = new BingoRoom(id, scheduler, drawIntervalMs, seed, cardSeed, gameStages);
+            rooms.put(id, openRoom);
+            roomOpened.signalAll();
+        } finally {
+            lobbyLock.unlock();
+        }
+    }
 
-                    int number;
-                    do {
-                        number = random.nextInt(75) + 1;
-                    } while (drawnNumbers.contains(number));
-                    drawnNumbers.add(number);
+    /**
+     * Hands a dropped player's seat, card and session to a new connection.
+     * Returns false if the token is unknown or its game has finished.
+     */
+    static boolean resume(Player player, String token) {
+        Player previous = sessions.get(token);
+        if (previous == null || !previous.room.reconnect(previous, player)) return false;
+        sessions.put(token, player);
+        BingoMetrics.increment(BingoMetrics.sessionsResumed);
+        return true;
+    }
 
-                    broadcast("NUMBER:" + number);
-                    System.out.println("Sent number: " + number);
+    /**
+     * Adds a spectator to the given room, or by default to the newest game
+     * in progress (the open lobby if none is running yet).
+     */
+    static boolean spectate(Player player, String roomId) {
+        BingoRoom room = null;
+        if (!roomId.isEmpty()) {
+            if (roomId.matches("\\d+")) room = rooms.get(Integer.parseInt(roomId));
+        } else {
+            for (BingoRoom candidate : rooms.values()) {
+                if (candidate.isStarted() && !candidate.isFinished()
+                        && (room == null || candidate.getId() > room.getId())) {
+                    room = candidate;
                 }
-
-                if (stopGame) {
-                    System.out.println("Game stopped due to a BINGO winner.");
+            }
+            if (room == null) {
+                lobbyLock.lock();
+                try {
+                    room = openRoom;
+                } finally {
+                    lobbyLock.unlock();
                 }
+            }
+        }
+        if (room == null || !room.addSpectator(player)) return false;
+        BingoMetrics.increment(BingoMetrics.spectatorsJoined);
+        return true;
+    }
 
-                // Clean up for next round
-                cleanupGame();
+    /** Forgets a finished game's session tokens. */
+    static void endSession(Player player) {
+        if (player.sessionToken != null) sessions.remove(player.sessionToken, player);
+    }
 
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * Replays the journal, restores every game that was still drawing (paused,
+     * its seats waiting for RESUME) and then appends to the same file. Games
+     * that never started are closed; their players simply join again.
+     */
+    private static void recover(Path path, long syncMillis) throws IOException {
+        long start = System.nanoTime();
+        GameJournal.Recovery recovery = GameJournal.read(path);
+        long readNanos = System.nanoTime() - start;
+        GameJournal journal = GameJournal.open(path, recovery.validBytes, syncMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::sync, "bingo-journal-sync"));
+        nextRoomId.set(recovery.maxRoomId);
+        int restored = 0;
+        for (GameJournal.RoomLog log : recovery.rooms.values()) {
+            if (!log.started || (log.drawCount == DrawSequence.NUMBERS && log.validClaims.isEmpty())) {
+                GameJournal.end(log.id);
+                continue;
             }
-        }).start();
+            BingoRoom room = new BingoRoom(log.id, scheduler, drawIntervalMs, log.seed);
+            for (Player player : room.restore(log)) sessions.put(player.sessionToken, player);
+            rooms.put(room.getId(), room);
+            restored++;
+        }
+        BingoLog.info(String.format("Journal %s: %d events (%d games finished) read in %.1f ms, %d games restored%s",
+                path, recovery.events, recovery.gamesFinished, readNanos / 1e6, restored,
+                recovery.tornTail ? ", torn tail dropped" : ""));
+    }
+
+    /**
+     * With --seed=S, room 1 replays seed S, room 2 seed S + 1, and so on;
+     * otherwise every room gets a fresh random seed. Rooms log their seed
+     * when the game starts, so any game can be replayed or audited.
+     */
+    private static long roomSeed(int roomId) {
+        return replaySeed != null ? replaySeed + roomId - 1 : ThreadLocalRandom.current().nextLong();
     }
 
+    static BingoRoom room(int id) {
+        return rooms.get(id);
+    }
+
+    static void roomFinished(BingoRoom room) {
+        rooms.remove(room.getId());
+    }
+
+    static int roomCount() {
+        return rooms.size();
+    }
+
+    /** Live view of the rooms open or playing. */
+    static Collection<BingoRoom> rooms() {
+        return rooms.values();
+    }
+
+    static void playerReady(Player player) {
+        player.room.playerReady(player);
+    }
+
+    /** Hands a player's BINGO to the room's claim stage; the answer comes back as a message. */
+    static void bingoClaimed(Player player) {
+        player.room.bingoClaimed(player);
+    }
+
+    /**
+     * A player's connection is gone. Seats in a game keep their card for
+     * RESUME:, but one in a lobby is given up at once, so a dead connection
+     * never holds up the start; the player simply joins again.
+     */
+    static void playerLeft(Player player) {
+        BingoRoom room = player.room;
+        if (room == null) return;
+        if (!room.isStarted()) {
+            room.playerDropped(player);
+            endSession(player);
+        }
+        room.playerLeft(player);
+    }
+
+    /** Server-wide announcement: encodes msg once per protocol and queues it to every room. */
     public static void broadcast(String msg) {
-        synchronized (clients) {
-            for (ClientHandler client : clients) {
-                client.send(msg);
-            }
+        BingoProtocol.Encoded encoded = BingoProtocol.Encoded.of(msg);
+        for (BingoRoom room : rooms.values()) {
+            room.broadcast(encoded);
         }
     }
 
-    private static void cleanupGame() {
-        synchronized (clients) {
-            for (ClientHandler client : clients) {
-                client.close();
+    /**
+     * A connected player, independent of how its socket is serviced
+     * (blocking ClientHandler thread or the NIO selector loop). Outgoing
+     * lines go through a bounded per-player queue so one stalled peer
+     * never holds up the others.
+     */
+    static abstract class Player {
+        protected String name;
+        BingoRoom room;
+        // Ids in the room's CardStore of the cards issued on join: cardId .. cardId + cardCount - 1
+        int cardId;
+        int cardCount = 1;
+        int seat;
+        String sessionToken;
+        // Set once the client negotiates PROTO:BIN; later messages go out as frames
+        volatile boolean binary = false;
+        // Set by PROTO:STAMP; each NUMBER then carries its server send time
+        volatile boolean stamped = false;
+        // Set by AUTODAUB; the server pushes NEAR:/WIN: for this player's cards
+        volatile boolean autoDaub = false;
+        private final AtomicBoolean disconnected = new AtomicBoolean();
+        // Connection lifecycle, timed by ConnectionManager
+        final long connectedAt = System.nanoTime();
+        volatile long lastHeard = connectedAt;
+        volatile boolean entered = false;
+        // Set once the client answers a PING or negotiates PROTO:; only then can it be idle
+        volatile boolean answersPings = false;
+        long pingedAt; // ConnectionManager's timer only
+        volatile TimingWheel.Timeout watch;
+
+        public String getName() {
+            return name;
+        }
+
+        public void send(String msg) {
+            deliver(binary ? BingoProtocol.encodeFrame(msg) : encodeLine(msg));
+        }
+
+        /** Queues a broadcast in whichever encoding this player speaks. */
+        void deliver(BingoProtocol.Encoded msg) {
+            deliver(msg.bytes(binary, stamped));
+        }
+
+        /**
+         * Handles a PROTO:, CARDS: or AUTODAUB option sent before the name,
+         * acknowledging it in the current encoding; returns false for any
+         * other line. PROTO:BIN switches every message after its
+         * acknowledgement to frames. CARDS:n is capped at --max-cards.
+         */
+        boolean negotiate(String line) {
+            if (BingoProtocol.BINARY.equals(line)) {
+                send(BingoProtocol.BINARY);
+                binary = true;
+                answersPings = true;
+                return true;
+            }
+            if (BingoProtocol.STAMP.equals(line)) {
+                send(BingoProtocol.STAMP);
+                stamped = true;
+                answersPings = true;
+                return true;
+            }
+            if (line.startsWith(BingoProtocol.CARDS) && line.substring(BingoProtocol.CARDS.length()).matches("\\d{1,6}")) {
+                int wanted = Integer.parseInt(line.substring(BingoProtocol.CARDS.length()));
+                cardCount = Math.max(1, Math.min(wanted, maxCardsPerPlayer));
+                send(BingoProtocol.CARDS + cardCount);
+                return true;
             }
-            clients.clear();
-            readyClients.clear();
+            if (BingoProtocol.AUTODAUB.equals(line)) {
+                send(BingoProtocol.AUTODAUB);
+                autoDaub = true;
+                return true;
+            }
+            return false;
+        }
+
+        /** Where a connection goes after its first line past the PROTO: options. */
+        enum Entry { LOBBY, PLAYING, SPECTATING, REJECTED }
+
+        /**
+         * Handles that line: RESUME:token takes over a dropped seat,
+         * SPECTATE[:room] watches a game, anything else is the player's name.
+         * A rejected connection has been told why and is closing.
+         */
+        Entry enter(String line) {
+            entered = true;
+            if (line.startsWith(BingoProtocol.RESUME)) {
+                if (!resume(this, line.substring(BingoProtocol.RESUME.length()))) {
+                    send("INVALID_SESSION");
+                    close();
+                    return Entry.REJECTED;
+                }
+                BingoLog.info(name + " has reconnected.");
+                return room.isStarted() || room.isReady(this) ? Entry.PLAYING : Entry.LOBBY;
+            }
+            if (line.equals(BingoProtocol.SPECTATE) || line.startsWith(BingoProtocol.SPECTATE + ":")) {
+                if (!spectate(this, line.substring(BingoProtocol.SPECTATE.length()).replace(":", ""))) {
+                    send("NO_GAME");
+                    close();
+                    return Entry.REJECTED;
+                }
+                return Entry.SPECTATING;
+            }
+            name = line;
+            BingoLog.info(name + " has connected.");
+            joinLobby(this);
+            send(BingoProtocol.SESSION + sessionToken);
+            return Entry.LOBBY;
+        }
+
+        /** Queues already encoded bytes, applying the overflow policy if the queue is full. */
+        void deliver(byte[] line) {
+            if (enqueue(line)) return;
+
+            BingoMetrics.increment(BingoMetrics.messagesDropped);
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                BingoLog.warn(name + " is not keeping up, disconnecting.");
+                BingoMetrics.increment(BingoMetrics.slowClientsDisconnected);
+                if (room != null) room.playerDropped(this);
+                abort();
+            }
+            // DROP: the line is simply not delivered to this player
         }
 
-        gameStarted = false;
-        stopGame = false;
-        drawnNumbers.clear();
+        /** Notes that the client sent something, which keeps its connection open. */
+        void heard() {
+            lastHeard = System.nanoTime();
+        }
 
-        System.out.println("Ready for new game round.");
+        /** Notes a PONG: the client speaks the heartbeat, so the idle timeout applies to it. */
+        void ponged() {
+            answersPings = true;
+        }
+
+        boolean isClosed() {
+            return disconnected.get();
+        }
+
+        /** Counts the connection as closed and stops its timer, once, however many paths close it. */
+        protected void connectionClosed() {
+            if (!disconnected.compareAndSet(false, true)) return;
+            BingoMetrics.increment(BingoMetrics.connectionsClosed);
+            TimingWheel.Timeout timeout = watch;
+            if (timeout != null) timeout.cancel();
+        }
+
+        /** Returns false only when the outbound queue is full. */
+        protected abstract boolean enqueue(byte[] line);
+
+        /** Messages queued but not yet written. */
+        abstract int queueDepth();
+
+        /** Closes after everything already queued has been written. */
+        public abstract void close();
+
+        /** Closes immediately, discarding anything still queued. */
+        protected abstract void abort();
     }
 
-    static class ClientHandler implements Runnable {
+    /** A seat restored from the journal whose client has not reconnected yet; messages to it are dropped. */
+    static class RecoveredPlayer extends Player {
+        RecoveredPlayer(String name, String sessionToken) {
+            this.name = name;
+            this.sessionToken = sessionToken;
+        }
+
+        @Override
+        protected boolean enqueue(byte[] line) {
+            return true;
+        }
+
+        @Override
+        int queueDepth() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        protected void abort() {
+        }
+    }
+
+    static class ClientHandler extends Player implements Runnable {
+        // Marker telling the writer to close the socket once the queue is drained
+        private static final byte[] CLOSE = new byte[0];
+
         private Socket socket;
-        private PrintWriter out;
+        private OutputStream out;
         private BufferedReader in;
-        private String name;
-        private boolean active = true;
+        private final BlockingQueue<byte[]> outbound = new ArrayBlockingQueue<>(queueCapacity);
+        private volatile boolean active = true;
 
         public ClientHandler(Socket socket) throws IOException {
             this.socket = socket;
-            this.out = new PrintWriter(socket.getOutputStream(), true);
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            // Protocol lines are short; small buffers keep idle players cheap
+            this.out = new BufferedOutputStream(socket.getOutputStream(), LINE_BUFFER);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()), LINE_BUFFER);
         }
 
-        public void send(String msg) {
-            if (active) out.println(msg);
+        @Override
+        protected boolean enqueue(byte[] line) {
+            return !active || outbound.offer(line);
+        }
+
+        @Override
+        int queueDepth() {
+            return outbound.size();
         }
 
+        @Override
         public void close() {
+            active = false;
+            if (!outbound.offer(CLOSE)) abort();
+        }
+
+        @Override
+        protected void abort() {
+            active = false;
+            outbound.clear();
+            outbound.offer(CLOSE); // wake the writer so it exits
+            closeSocket();
+        }
+
+        private void closeSocket() {
+            connectionClosed();
             try {
-                active = false;
                 socket.close();
             } catch (IOException e) {
                 // ignore
             }
         }
 
+        /** The client's next line, noting that it was heard from; a PONG does only that. */
+        private String readLine() throws IOException {
+            String line;
+            do {
+                line = boundedLine();
+                if (line == null) return null;
+                heard();
+                if (line.equals(BingoProtocol.PONG)) ponged();
+            } while (line.equals(BingoProtocol.PONG));
+            return line;
+        }
+
+        /**
+         * Like BufferedReader.readLine(), but keeps only the first MAX_LINE
+         * chars of a line, as the NIO server does, so a client cannot make the
+         * server buffer (or journal as its name) a line of any length.
+         */
+        private String boundedLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) return line.length() > 0 ? line.toString() : null;
+                if (line.length() < MAX_LINE) line.append((char) c);
+            }
+            int end = line.length();
+            if (end > 0 && line.charAt(end - 1) == '\r') line.setLength(end - 1);
+            return line.toString();
+        }
+
+        /** Drains the outbound queue, flushing whenever it runs empty. */
+        private void writeLoop() {
+            try {
+                byte[] line;
+                while ((line = outbound.take()) != CLOSE) {
+                    out.write(line);
+                    if (outbound.isEmpty()) out.flush();
+                }
+                out.flush();
+            } catch (IOException | InterruptedException e) {
+                // peer gone; the reader side reports the disconnect
+            } finally {
+                closeSocket();
+            }
+        }
+
         @Override
         public void run() {
+            Threads.start(this::writeLoop, virtualThreads);
             try {
-                out.println("WELCOME");
-                name = in.readLine();
-                System.out.println(name + " has connected.");
+                send("WELCOME");
+                String first = readLine();
+                while (first != null && negotiate(first)) {
+                    first = readLine();
+                }
+                Entry entry = first == null ? Entry.REJECTED : enter(first);
+                if (entry == Entry.REJECTED) {
+                    if (first == null) abort();
+                    return;
+                }
+                if (entry == Entry.SPECTATING) {
+                    while (readLine() != null) {
+                        // spectators only listen
+                    }
+                    abort();
+                    return;
+                }
 
-                out.println("Type 'ready' to start the game...");
-                while (true) {
-                    String msg = in.readLine();
+                while (entry == Entry.LOBBY) {
+                    String msg = readLine();
                     if (msg == null) break;
 
                     if (msg.equalsIgnoreCase("ready")) {
-                        System.out.println(name + " is ready.");
-                        readyClients.add(this);
-                        if (readyClients.size() == clients.size()) {
-                            startGame();
-                        }
+                        playerReady(this);
                         break;
                     }
+                    // A countdown or scheduled start can begin the game before this player is ready
+                    if (msg.equalsIgnoreCase("BINGO") && room.isStarted()) bingoClaimed(this);
                 }
 
                 // Game loop
                 String line;
-                while ((line = in.readLine()) != null) {
-                    if (line.equalsIgnoreCase("BINGO")) {
-                        System.out.println(name + " claims BINGO!");
-                        broadcast("WINNER:" + name);
-                        stopGame = true;
-                        break;
-                    }
+                while ((line = readLine()) != null) {
+                    if (line.equalsIgnoreCase("BINGO")) bingoClaimed(this);
                 }
+                abort(); // peer closed the connection
 
             } catch (IOException e) {
-                System.out.println(name + " disconnected.");
+                BingoLog.info(name + " disconnected.");
+                abort();
             } finally {
-                readyClients.remove(this);
+                playerLeft(this);
             }
         }
     }
@@ -0,0 +1,427 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Offline Monte Carlo for pricing prizes: plays complete games in process,
+ * with no server, clients or draw interval, and reports how many numbers
+ * each stage takes to be won and how many players share it.
+ *
+ * Game g (from 1) is dealt and drawn exactly as BingoServer --seed=S deals
+ * and draws room g: the order from DrawSequence(S + g - 1), every card from
+ * CardGenerator.forGame with that seed, in seat order, each player's cards
+ * consecutive. Play is ideal: everyone claims on the number that completes
+ * a card, so a stage is won on the first draw completing any card and its
+ * co-winners are the players with a card complete by then, as when every
+ * claim arrives within the claim window. The next stage is played from
+ * that draw on, and cards that already match it win at once. Every stage
+ * is won by the 75th number, which the room's last call still awards.
+ *
+ * A card's win draw needs no marking: it is the earliest, over the
+ * pattern's masks, of the latest draw among each mask's cells. --verify=N
+ * plays the first N games through BingoRoom itself and checks that both
+ * agree. --replay=G prints one game, played draw by draw through CardStore.
+ *
+ * Games are split across a fork-join pool (--threads, every core by
+ * default). Each leaf counts into its own histograms, which are summed on
+ * the way up, so a seed gives the same report at any thread count.
+ *
+ * Usage: java BingoSimulation [games] [players] [--cards=N] [--patterns=line,...] [--seed=S]
+ *                             [--bingo-columns] [--threads=N] [--verify=N] [--replay=G]
+ */
+public class BingoSimulation {
+    // Games per fork-join leaf
+    private static final int BATCH = 1024;
+    private static final int CELLS = CardGenerator.CELLS;
+
+    private final int players;
+    private final int cardsPerPlayer;
+    private final WinPattern[] stages;
+    private final boolean columnRanges;
+    // stageCells[s][m] lists the cells of stage s's mask m
+    private final int[][][] stageCells;
+
+    BingoSimulation(int players, int cardsPerPlayer, WinPattern[] stages, boolean columnRanges) {
+        this.players = players;
+        this.cardsPerPlayer = cardsPerPlayer;
+        this.stages = stages.clone();
+        this.columnRanges = columnRanges;
+        stageCells = new int[stages.length][][];
+        for (int s = 0; s < stages.length; s++) {
+            WinPattern pattern = stages[s];
+            stageCells[s] = new int[pattern.maskCount()][];
+            for (int m = 0; m < pattern.maskCount(); m++) {
+                int mask = pattern.mask(m);
+                int[] cells = new int[Integer.bitCount(mask)];
+                for (int cell = 0, k = 0; cell < CELLS; cell++) {
+                    if ((mask & 1 << cell) != 0) cells[k++] = cell;
+                }
+                stageCells[s][m] = cells;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) positional.add(arg);
+        }
+        int games = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 1_000_000;
+        int players = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 100;
+        int cards = Integer.parseInt(BingoServer.optionValue(args, "--cards", "1"));
+        WinPattern[] stages = WinPattern.parseStages(BingoServer.optionValue(args, "--patterns", "line"));
+        String seedArg = BingoServer.optionValue(args, "--seed", null);
+        long seed = seedArg != null ? Long.parseLong(seedArg) : new SplittableRandom().nextLong();
+        boolean columns = Arrays.asList(args).contains("--bingo-columns");
+        int threads = Integer.parseInt(BingoServer.optionValue(args, "--threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int verify = Integer.parseInt(BingoServer.optionValue(args, "--verify", "0"));
+        String replay = BingoServer.optionValue(args, "--replay", null);
+
+        BingoSimulation simulation = new BingoSimulation(players, cards, stages, columns);
+        if (replay != null) {
+            simulation.replay(seed + Long.parseLong(replay) - 1, true, new int[stages.length], new int[stages.length]);
+            return;
+        }
+        System.out.printf("simulation: %,d games, %,d players x %d card%s, --patterns=%s%s, --seed=%d, %d threads%n",
+                games, players, cards, cards == 1 ? "" : "s", WinPattern.toSpec(stages),
+                columns ? " --bingo-columns" : "", seed, threads);
+        if (verify > 0) {
+            int mismatches = simulation.verify(seed, Math.min(verify, games));
+            System.out.printf("verified %,d games against BingoRoom: %d mismatches%n",
+                    Math.min(verify, games), mismatches);
+            if (mismatches > 0) System.exit(1);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Tally tally = pool.invoke(simulation.new Games(seed, 0, games));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        System.out.printf("elapsed %.2f s: %,.0f games/s, %,.0f cards/s%n", seconds, games / seconds,
+                (double) games * players * cards / seconds);
+        simulation.report(tally);
+    }
+
+    /** Outcome counts over many games, per stage. */
+    static final class Tally {
+        long games;
+        // wonOnDraw[s][d]: games whose stage s was won on draw d
+        final long[][] wonOnDraw;
+        // sharedBy[s][k]: games whose stage s had k co-winners
+        final long[][] sharedBy;
+
+        Tally(int stages, int players) {
+            wonOnDraw = new long[stages][DrawSequence.NUMBERS + 1];
+            sharedBy = new long[stages][players + 1];
+        }
+
+        void add(Tally other) {
+            games += other.games;
+            for (int s = 0; s < wonOnDraw.length; s++) {
+                for (int d = 0; d < wonOnDraw[s].length; d++) wonOnDraw[s][d] += other.wonOnDraw[s][d];
+                for (int k = 0; k < sharedBy[s].length; k++) sharedBy[s][k] += other.sharedBy[s][k];
+            }
+        }
+    }
+
+    /** Plays games [from, to), halving the range until a leaf is at most BATCH games. */
+    private final class Games extends RecursiveTask<Tally> {
+        private static final long serialVersionUID = 1L;
+
+        private final long seed;
+        private final int from, to;
+
+        Games(long seed, int from, int to) {
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from <= BATCH) {
+                Tally tally = new Tally(stages.length, players);
+                Scratch scratch = new Scratch();
+                int[] winDraw = new int[stages.length];
+                int[] winners = new int[stages.length];
+                for (int game = from; game < to; game++) {
+                    play(seed + game, scratch, winDraw, winners);
+                    tally.games++;
+                    for (int s = 0; s < stages.length; s++) {
+                        tally.wonOnDraw[s][winDraw[s]]++;
+                        tally.sharedBy[s][winners[s]]++;
+                    }
+                }
+                return tally;
+            }
+            int mid = (from + to) >>> 1;
+            Games right = new Games(seed, mid, to);
+            right.fork();
+            Tally tally = new Games(seed, from, mid).compute();
+            tally.add(right.join());
+            return tally;
+        }
+    }
+
+    /** Per-leaf buffers, reused for every game the leaf plays. */
+    private final class Scratch {
+        final int[] drawIndex = new int[DrawSequence.NUMBERS + 1]; // 0 for the free centre
+        final int[] card = new int[CELLS];
+        final int[] cellDraw = new int[CELLS]; // the draw marking each cell of the current card
+        // best[p * stages + s]: the earliest draw on which one of player p's cards matches stage s
+        final int[] best = new int[players * stages.length];
+    }
+
+    /** Plays one game; winDraw[s] and winners[s] get the draw stage s was won on and its co-winner count. */
+    void play(long seed, Scratch scratch, int[] winDraw, int[] winners) {
+        DrawSequence draws = new DrawSequence(seed);
+        while (draws.hasNext()) draws.next();
+        int[] drawIndex = scratch.drawIndex;
+        for (int n = 1; n <= DrawSequence.NUMBERS; n++) drawIndex[n] = draws.drawIndexOf(n);
+
+        int stageCount = stages.length;
+        int[] best = scratch.best;
+        Arrays.fill(best, Integer.MAX_VALUE);
+        CardGenerator generator = CardGenerator.forGame(seed, columnRanges);
+        for (int p = 0; p < players; p++) {
+            for (int c = 0; c < cardsPerPlayer; c++) {
+                generator.next(scratch.card, 0);
+                for (int cell = 0; cell < CELLS; cell++) scratch.cellDraw[cell] = drawIndex[scratch.card[cell]];
+                for (int s = 0; s < stageCount; s++) {
+                    int i = p * stageCount + s;
+                    best[i] = winDraw(scratch.cellDraw, stageCells[s], best[i]);
+                }
+            }
+        }
+
+        int opened = 0; // the draw the stage began on
+        for (int s = 0; s < stageCount; s++) {
+            int first = Integer.MAX_VALUE;
+            for (int p = 0; p < players; p++) first = Math.min(first, best[p * stageCount + s]);
+            int won = Math.max(opened, first);
+            int shared = 0;
+            for (int p = 0; p < players; p++) {
+                if (best[p * stageCount + s] <= won) shared++;
+            }
+            winDraw[s] = won;
+            winners[s] = shared;
+            opened = won;
+        }
+    }
+
+    /**
+     * The earlier of bound and the draw on which a card first matches one of
+     * the masks: the earliest over masks of the latest draw among its cells.
+     * A mask is abandoned as soon as it cannot beat the earliest so far.
+     */
+    private static int winDraw(int[] cellDraw, int[][] masks, int bound) {
+        int earliest = bound;
+        for (int[] cells : masks) {
+            int latest = 0;
+            for (int cell : cells) {
+                latest = Math.max(latest, cellDraw[cell]);
+                if (latest >= earliest) break;
+            }
+            earliest = Math.min(earliest, latest);
+        }
+        return earliest;
+    }
+
+    /**
+     * Plays the game draw by draw through CardStore, marking and moving
+     * between stages as BingoRoom does; optionally prints it.
+     */
+    void replay(long seed, boolean print, int[] winDraw, int[] winners) {
+        CardStore store = new CardStore(players * cardsPerPlayer);
+        CardGenerator generator = CardGenerator.forGame(seed, columnRanges);
+        int[] card = new int[CELLS];
+        for (int i = 0; i < players * cardsPerPlayer; i++) {
+            generator.next(card, 0);
+            store.add(card);
+        }
+        DrawSequence draws = new DrawSequence(seed);
+        if (print) {
+            System.out.printf("Game with seed %d: %,d players x %d card%s, --patterns=%s%n", seed, players,
+                    cardsPerPlayer, cardsPerPlayer == 1 ? "" : "s", WinPattern.toSpec(stages));
+        }
+        int stage = 0;
+        int found = store.setPattern(stages[0]);
+        StringBuilder drawn = new StringBuilder();
+        while (stage < stages.length) {
+            if (found == 0) {
+                int number = draws.next();
+                drawn.append(drawn.length() == 0 ? "" : " ").append(number);
+                found = store.markNumber(number);
+                continue;
+            }
+            SortedSet<Integer> seats = new TreeSet<>();
+            for (int k = 0; k < found; k++) seats.add(store.newWinners()[k] / cardsPerPlayer);
+            winDraw[stage] = draws.position();
+            winners[stage] = seats.size();
+            if (print) {
+                System.out.printf("  draws %s%n", drawn.length() == 0 ? "(none)" : drawn);
+                System.out.printf("  stage %d (%s) won on draw %d by seat%s %s%n", stage + 1, stages[stage],
+                        draws.position(), seats.size() == 1 ? "" : "s", seats);
+                drawn.setLength(0);
+            }
+            if (++stage < stages.length) found = store.setPattern(stages[stage]);
+        }
+    }
+
+    /**
+     * Plays games 1..count through BingoRoom, in turbo mode with AUTODAUB
+     * players who claim on every WIN:, and counts those where the room and
+     * play() disagree on a stage's winning draw or co-winners. The rooms
+     * share one scheduler thread of their own, so each claim is decided and
+     * announced before the next number, as ideal play assumes. A room ends
+     * as it would on the server, including the last call after the 75th
+     * number.
+     */
+    int verify(long seed, int count) throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        boolean columns = BingoServer.bingoColumns;
+        long window = BingoServer.claimWindowMs;
+        BingoServer.bingoColumns = columnRanges;
+        BingoServer.claimWindowMs = 0;
+        BingoLog.setLevel(BingoLog.Level.WARN);
+        List<RoomGame> games = new ArrayList<>();
+        for (int game = 0; game < count; game++) games.add(new RoomGame(game + 1, seed + game, scheduler));
+        for (RoomGame game : games) game.start();
+
+        Scratch scratch = new Scratch();
+        int[] winDraw = new int[stages.length], winners = new int[stages.length];
+        int mismatches = 0;
+        for (RoomGame game : games) {
+            while (!game.room.isFinished()) Thread.sleep(1);
+            play(game.seed, scratch, winDraw, winners);
+            if (!Arrays.equals(winDraw, game.winDraw) || !Arrays.equals(winners, game.winners)) {
+                if (mismatches++ == 0) {
+                    System.out.printf("  game %d: draws %s / room %s, winners %s / room %s%n", game.room.getId(),
+                            Arrays.toString(winDraw), Arrays.toString(game.winDraw),
+                            Arrays.toString(winners), Arrays.toString(game.winners));
+                }
+            }
+        }
+        scheduler.shutdown();
+        BingoServer.bingoColumns = columns;
+        BingoServer.claimWindowMs = window;
+        BingoLog.setLevel(BingoLog.Level.INFO);
+        return mismatches;
+    }
+
+    /** One game played through BingoRoom, with the draw and co-winner count of each stage's PRIZE:s. */
+    private final class RoomGame {
+        final long seed;
+        final BingoRoom room;
+        final List<Seat> seats = new ArrayList<>();
+        final int[] winDraw = new int[stages.length];
+        final int[] winners = new int[stages.length];
+        int stage; // stages announced so far; scheduler thread only
+
+        RoomGame(int id, long seed, ScheduledExecutorService scheduler) {
+            this.seed = seed;
+            room = new BingoRoom(id, scheduler, 0, seed, seed, stages);
+            for (int p = 0; p < players; p++) {
+                Seat seat = new Seat(this, "p" + p);
+                room.join(seat);
+                seats.add(seat);
+            }
+        }
+
+        /** Readies every seat; the last ready starts the game. */
+        void start() {
+            for (Seat seat : seats) room.playerReady(seat);
+        }
+
+        void prize() {
+            winDraw[stage] = room.draws().position();
+            winners[stage]++;
+        }
+    }
+
+    /** An ideal AUTODAUB player: claims on every WIN: and reports its PRIZE:s. */
+    private final class Seat extends BingoServer.Player {
+        private final RoomGame game;
+
+        Seat(RoomGame game, String name) {
+            this.game = game;
+            this.name = name;
+            cardCount = cardsPerPlayer;
+            autoDaub = true;
+        }
+
+        @Override
+        protected boolean enqueue(byte[] line) {
+            String text = new String(line, StandardCharsets.UTF_8);
+            if (text.startsWith(BingoProtocol.WIN)) {
+                game.room.bingoClaimed(this);
+            } else if (text.startsWith(BingoProtocol.PRIZE)) {
+                game.prize();
+            } else if (seat == 0 && text.startsWith(BingoProtocol.STAGE_WINNER)) {
+                // Every seat gets the broadcast; one counts it
+                game.stage++;
+            }
+            return true;
+        }
+
+        @Override
+        int queueDepth() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        protected void abort() {
+        }
+    }
+
+    private void report(Tally tally) {
+        for (int s = 0; s < stages.length; s++) {
+            long[] draws = tally.wonOnDraw[s];
+            long[] shared = tally.sharedBy[s];
+            System.out.printf("stage %d (%s): draws to first win mean %.2f, p50 %d, p90 %d, p99 %d, min %d, max %d%n",
+                    s + 1, stages[s], mean(draws, tally.games), percentile(draws, tally.games, 0.5),
+                    percentile(draws, tally.games, 0.9), percentile(draws, tally.games, 0.99),
+                    percentile(draws, tally.games, 0), percentile(draws, tally.games, 1));
+            System.out.printf("  co-winners mean %.3f, shared in %.2f%% of games, max %d%n",
+                    mean(shared, tally.games), 100.0 * (tally.games - shared[1]) / tally.games,
+                    percentile(shared, tally.games, 1));
+            System.out.printf("  %5s %10s %10s%n", "draw", "P(won on)", "P(by)");
+            long cumulative = 0;
+            for (int d = 0; d < draws.length; d++) {
+                if (draws[d] == 0) continue;
+                cumulative += draws[d];
+                System.out.printf("  %5d %10.6f %10.6f%n", d, (double) draws[d] / tally.games,
+                        (double) cumulative / tally.games);
+            }
+            System.out.printf("  %8s %10s%n", "sharedBy", "P");
+            for (int k = 1; k < shared.length; k++) {
+                if (shared[k] > 0) System.out.printf("  %8d %10.6f%n", k, (double) shared[k] / tally.games);
+            }
+        }
+    }
+
+    private static double mean(long[] histogram, long total) {
+        double sum = 0;
+        for (int i = 0; i < histogram.length; i++) sum += (double) i * histogram[i];
+        return sum / total;
+    }
+
+    /** The smallest value with at least fraction q of the games at or below it; q = 0 gives the minimum. */
+    private static int percentile(long[] histogram, long total, double q) {
+        long needed = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= needed) return i;
+        }
+        return histogram.length - 1;
+    }
+}
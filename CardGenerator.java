@@ -0,0 +1,132 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Allocation-free card generation. Each card is a partial Fisher-Yates
+ * shuffle over a reusable pool of 1..75, so no numbers are ever rejected or
+ * boxed. The pool stays a permutation after every card, so it never needs
+ * resetting.
+ *
+ * With column ranges the card follows the standard B-I-N-G-O layout
+ * (column 0 from 1-15, column 1 from 16-30, ...); otherwise any number can
+ * appear in any cell, as BingoCard always did.
+ */
+final class CardGenerator {
+    static final int CELLS = 25;
+    private static final int FREE_CELL = 12;
+    // Cards per fork-join leaf task when generating in bulk
+    private static final int BATCH = 4096;
+
+    private static final ThreadLocal<CardGenerator> LOCAL =
+            ThreadLocal.withInitial(() -> new CardGenerator(false));
+
+    private final SplittableRandom random;
+    private final boolean columnRanges;
+    private final int[] pool = new int[75];
+
+    CardGenerator(boolean columnRanges) {
+        this(new SplittableRandom(), columnRanges);
+    }
+
+    CardGenerator(long seed, boolean columnRanges) {
+        this(new SplittableRandom(seed), columnRanges);
+    }
+
+    /**
+     * The deal for a game whose draw order DrawSequence shuffles from the same
+     * seed. The cards take a stream split off the seed's rather than the seed's
+     * own, which the draw shuffle reads: sharing it would tie the first card
+     * to the draw order (its first number would always be drawn last).
+     */
+    static CardGenerator forGame(long seed, boolean columnRanges) {
+        return new CardGenerator(new SplittableRandom(seed).split(), columnRanges);
+    }
+
+    private CardGenerator(SplittableRandom random, boolean columnRanges) {
+        this.random = random;
+        this.columnRanges = columnRanges;
+        for (int i = 0; i < pool.length; i++) pool[i] = i + 1;
+    }
+
+    /** This thread's generator (unseeded, any number in any cell). */
+    static CardGenerator current() {
+        return LOCAL.get();
+    }
+
+    /** Writes one card's 25 row-major numbers (0 for the free centre) to out[offset..]. */
+    void next(int[] out, int offset) {
+        if (columnRanges) {
+            for (int col = 0; col < 5; col++) {
+                int base = col * 15;
+                for (int row = 0; row < 5; row++) {
+                    swap(base + row, base + row + random.nextInt(15 - row));
+                    out[offset + row * 5 + col] = pool[base + row];
+                }
+            }
+        } else {
+            for (int k = 0; k < CELLS; k++) {
+                swap(k, k + random.nextInt(75 - k));
+                out[offset + k] = pool[k];
+            }
+        }
+        out[offset + FREE_CELL] = 0;
+    }
+
+    private void swap(int i, int j) {
+        int tmp = pool[i];
+        pool[i] = pool[j];
+        pool[j] = tmp;
+    }
+
+    /**
+     * Generates count cards into one flat row-major array (25 ints per card).
+     * The random stream is split along a fixed task tree, so the same seed
+     * gives the same deck whether or not it runs in parallel.
+     */
+    static int[] generate(int count, long seed, boolean columnRanges, boolean parallel) {
+        int[] out = new int[count * CELLS];
+        Batch root = new Batch(out, 0, count, new SplittableRandom(seed), columnRanges);
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(root);
+        } else {
+            root.compute();
+        }
+        return out;
+    }
+
+    private static final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] out;
+        private final int from, to;
+        private final SplittableRandom random;
+        private final boolean columnRanges;
+
+        Batch(int[] out, int from, int to, SplittableRandom random, boolean columnRanges) {
+            this.out = out;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+            this.columnRanges = columnRanges;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                CardGenerator generator = new CardGenerator(random, columnRanges);
+                for (int card = from; card < to; card++) generator.next(out, card * CELLS);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            Batch right = new Batch(out, mid, to, random.split(), columnRanges);
+            Batch left = new Batch(out, from, mid, random, columnRanges);
+            if (getPool() != null) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.*;
+
+/**
+ * Paints a whole sheet of Bingo cards in one component, so a player with 36
+ * cards costs one widget instead of 900 JButtons. Marking a number repaints
+ * only the cells holding it, and paintComponent() draws only the cells
+ * inside the clip, so a draw touches a few cells however big the sheet is.
+ * EDT only, like any Swing component.
+ */
+class CardSheet extends JComponent {
+    private static final long serialVersionUID = 1L;
+    private static final int SIZE = 5;
+    private static final int GAP = 10;
+    private static final Color MARKED = Color.GREEN;
+    private static final Color FREE = Color.CYAN;
+    private static final Color UNMARKED = new Color(238, 238, 238);
+    private static final Color WINNING = Color.ORANGE;
+
+    private final List<BingoCard> cards = new ArrayList<>();
+    // positions[n] lists (card * 25 + cell) for every cell holding number n
+    private int[][] positions = new int[DrawSequence.NUMBERS + 1][0];
+    private int cellSize = 60;
+    private int columns = 1;
+    private Font font;
+    private WinPattern pattern = WinPattern.LINE;
+
+    /** Replaces the sheet; a single card is drawn large, bigger sheets in a compact grid. */
+    void setCards(List<BingoCard> newCards) {
+        cards.clear();
+        cards.addAll(newCards);
+        int n = Math.max(1, cards.size());
+        cellSize = n == 1 ? 60 : n <= 6 ? 40 : 28;
+        columns = (int) Math.ceil(Math.sqrt(n * 1.5));
+        columns = Math.min(columns, n);
+        font = new Font("Arial", Font.BOLD, cellSize / 3 + 2);
+
+        int[] counts = new int[DrawSequence.NUMBERS + 1];
+        for (BingoCard card : cards) {
+            for (int[] row : card.getCardNumbers()) {
+                for (int number : row) counts[number]++;
+            }
+        }
+        positions = new int[DrawSequence.NUMBERS + 1][];
+        for (int number = 0; number < positions.length; number++) positions[number] = new int[counts[number]];
+        for (int c = 0; c < cards.size(); c++) {
+            int[][] numbers = cards.get(c).getCardNumbers();
+            for (int cell = 0; cell < SIZE * SIZE; cell++) {
+                int number = numbers[cell / SIZE][cell % SIZE];
+                positions[number][--counts[number]] = c * SIZE * SIZE + cell;
+            }
+        }
+        revalidate();
+        repaint();
+    }
+
+    List<BingoCard> getCards() {
+        return cards;
+    }
+
+    WinPattern getPattern() {
+        return pattern;
+    }
+
+    /** Switches to the next stage's pattern; returns true if a card already completes it. */
+    boolean setPattern(WinPattern next) {
+        pattern = next;
+        repaint();
+        return anyBingo();
+    }
+
+    /**
+     * Marks a drawn number on every card and repaints just those cells, or
+     * the whole card when it completes the pattern. Returns true if any card
+     * completed the pattern with this number.
+     */
+    boolean mark(int number) {
+        if (number < 1 || number >= positions.length) return false;
+        boolean bingo = false;
+        for (int position : positions[number]) {
+            int c = position / (SIZE * SIZE);
+            BingoCard card = cards.get(c);
+            boolean before = card.matches(pattern);
+            card.markNumber(number);
+            if (!before && card.matches(pattern)) {
+                bingo = true;
+                repaint(cardBounds(c));
+            } else {
+                repaint(cellBounds(c, position % (SIZE * SIZE)));
+            }
+        }
+        return bingo;
+    }
+
+    boolean anyBingo() {
+        for (BingoCard card : cards) {
+            if (card.matches(pattern)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int rows = (Math.max(1, cards.size()) + columns - 1) / columns;
+        int cardSize = SIZE * cellSize;
+        return new Dimension(columns * (cardSize + GAP) + GAP, rows * (cardSize + GAP) + GAP);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(getSize());
+        g.setColor(getBackground() != null ? getBackground() : Color.WHITE);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setFont(font);
+        FontMetrics metrics = g.getFontMetrics();
+
+        for (int c = 0; c < cards.size(); c++) {
+            Rectangle bounds = cardBounds(c);
+            if (!bounds.intersects(clip)) continue;
+            BingoCard card = cards.get(c);
+            int[][] numbers = card.getCardNumbers();
+            int mask = card.getMarkedMask();
+            boolean won = card.matches(pattern);
+            g.setColor(won ? WINNING : Color.DARK_GRAY);
+            g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+            for (int cell = 0; cell < SIZE * SIZE; cell++) {
+                Rectangle r = cellBounds(c, cell);
+                if (!r.intersects(clip)) continue;
+                int number = numbers[cell / SIZE][cell % SIZE];
+                boolean marked = (mask & 1 << cell) != 0;
+                g.setColor(number == 0 ? FREE : marked ? MARKED : UNMARKED);
+                g.fillRect(r.x + 1, r.y + 1, r.width - 2, r.height - 2);
+                String text = number == 0 ? "FREE" : Integer.toString(number);
+                g.setColor(Color.BLACK);
+                g.drawString(text, r.x + (r.width - metrics.stringWidth(text)) / 2,
+                        r.y + (r.height + metrics.getAscent() - metrics.getDescent()) / 2);
+            }
+        }
+    }
+
+    private Rectangle cardBounds(int c) {
+        int cardSize = SIZE * cellSize;
+        return new Rectangle(GAP + (c % columns) * (cardSize + GAP), GAP + (c / columns) * (cardSize + GAP),
+                cardSize, cardSize);
+    }
+
+    private Rectangle cellBounds(int c, int cell) {
+        int cardSize = SIZE * cellSize;
+        return new Rectangle(GAP + (c % columns) * (cardSize + GAP) + (cell % SIZE) * cellSize,
+                GAP + (c / columns) * (cardSize + GAP) + (cell / SIZE) * cellSize, cellSize, cellSize);
+    }
+}
@@ -0,0 +1,261 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bulk storage for server-side cards. An inverted index maps each of the 75
+ * numbers to the (card, cell) positions holding it, so marking a draw
+ * touches only the cards that contain the number. A card's marks are read
+ * back as one 25-bit mask and tested against the game's current WinPattern,
+ * only its masks through the cell just marked, so cards completing the
+ * pattern, or coming one number short of it, are found incrementally
+ * instead of rescanning every card. Each win is stamped with how many
+ * numbers had been drawn when the card completed the pattern, so a claim
+ * can be judged against the draws its player had seen (wonAt).
+ *
+ * Storage is columnar and primitive: one byte per cell number (they fit in
+ * 7 bits), one bit per cell in a shared long bitset for marks, and a
+ * status byte and a win-draw byte per card. Card numbers, which are only read when a card is sent
+ * or viewed, can live off-heap in a direct buffer for halls with millions
+ * of cards. BingoCard-style views are built only on demand.
+ *
+ * Not thread-safe; BingoRoom only touches it under its lock.
+ */
+class CardStore {
+    static final int CELLS = 25;
+    private static final int FREE_CELL = 12;
+    private static final int CELL_MASK = (1 << CELLS) - 1;
+    // Card status against the current pattern
+    private static final byte NEAR = 1, WON = 2;
+
+    private final boolean offHeap;
+    private int size = 0;
+    private int capacity;
+    private ByteBuffer numbers;   // card * 25 + cell, 0 for the free centre
+    private long[] marks;         // bit (card * 25 + cell) set when marked
+    private byte[] status;        // NEAR or WON per card, for the current pattern
+    private byte[] wonAt;         // draws marked when a WON card completed the pattern
+    private int drawn = 0;        // numbers marked so far
+    private WinPattern pattern = WinPattern.LINE;
+    // index[n] holds positions (card * 25 + cell) of number n
+    private final int[][] index = new int[76][];
+    private final int[] indexSize = new int[76];
+    private int[] newWinners = new int[16];
+    private int[] newNear = new int[16];
+    private int newNearCount = 0;
+
+    CardStore() {
+        this(16, false);
+    }
+
+    CardStore(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    CardStore(int initialCapacity, boolean offHeap) {
+        this.offHeap = offHeap;
+        this.capacity = Math.max(1, initialCapacity);
+        numbers = allocate(capacity * CELLS);
+        marks = new long[markWords(capacity)];
+        status = new byte[capacity];
+        wonAt = new byte[capacity];
+        for (int n = 1; n <= 75; n++) {
+            index[n] = new int[Math.max(4, capacity / 3)];
+        }
+    }
+
+    private ByteBuffer allocate(int bytes) {
+        return offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+    }
+
+    // One spare word so a card's 25 bits can always be read as two words
+    private static int markWords(int cards) {
+        return (int) (((long) cards * CELLS + 63) >>> 6) + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Adds a card given as 25 row-major numbers (0 = free centre) and returns its id. */
+    int add(int[] cardNumbers) {
+        return add(cardNumbers, 0);
+    }
+
+    /** Adds the card at cardNumbers[offset..offset + 24], e.g. from a CardGenerator deck. */
+    int add(int[] cardNumbers, int offset) {
+        if (size == capacity) grow();
+        int card = size++;
+        int base = card * CELLS;
+        for (int cell = 0; cell < CELLS; cell++) {
+            int number = cell == FREE_CELL ? 0 : cardNumbers[offset + cell];
+            if (number < 0 || number > 75) throw new IllegalArgumentException("Not a Bingo number: " + number);
+            numbers.put(base + cell, (byte) number);
+            if (number > 0) addToIndex(number, base + cell);
+        }
+        setMark(base + FREE_CELL);
+        return card;
+    }
+
+    int add(BingoCard card) {
+        int[][] grid = card.getCardNumbers();
+        int[] flat = new int[CELLS];
+        for (int cell = 0; cell < CELLS; cell++) flat[cell] = grid[cell / 5][cell % 5];
+        return add(flat);
+    }
+
+    private void addToIndex(int number, int position) {
+        if (indexSize[number] == index[number].length) {
+            index[number] = Arrays.copyOf(index[number], index[number].length * 2);
+        }
+        index[number][indexSize[number]++] = position;
+    }
+
+    private void grow() {
+        capacity *= 2;
+        numbers = copyOf(numbers, capacity * CELLS);
+        marks = Arrays.copyOf(marks, markWords(capacity));
+        status = Arrays.copyOf(status, capacity);
+        wonAt = Arrays.copyOf(wonAt, capacity);
+    }
+
+    private ByteBuffer copyOf(ByteBuffer old, int bytes) {
+        ByteBuffer copy = allocate(bytes);
+        old.clear();
+        copy.put(old);
+        return copy;
+    }
+
+    private void setMark(int position) {
+        marks[position >>> 6] |= 1L << position;
+    }
+
+    private boolean isMarked(int position) {
+        return (marks[position >>> 6] & (1L << position)) != 0;
+    }
+
+    /**
+     * Marks a drawn number on every card holding it and returns how many
+     * cards completed the current pattern on this draw; their ids are in
+     * newWinners() until the next call. Cards that came one number short of
+     * it for the first time on this draw, without winning, are in newNear().
+     */
+    int markNumber(int number) {
+        drawn++;
+        int winners = 0;
+        int near = 0;
+        int[] positions = index[number];
+        for (int k = 0, n = indexSize[number]; k < n; k++) {
+            int position = positions[k];
+            if (isMarked(position)) continue; // number already drawn
+            int card = position / CELLS;
+            int cell = position - card * CELLS;
+            setMark(position);
+            byte state = status[card];
+            if (state == WON) continue;
+            // Only masks through this cell can have just been completed or come within one cell
+            int marked = markedMask(card);
+            if (pattern.completedBy(marked, cell)) {
+                status[card] = WON;
+                wonAt[card] = (byte) drawn;
+                if (winners == newWinners.length) newWinners = Arrays.copyOf(newWinners, winners * 2);
+                newWinners[winners++] = card;
+            } else if (state != NEAR && pattern.oneShortThrough(marked, cell)) {
+                status[card] = NEAR;
+                if (near == newNear.length) newNear = Arrays.copyOf(newNear, near * 2);
+                newNear[near++] = card;
+            }
+        }
+        newNearCount = near;
+        return winners;
+    }
+
+    WinPattern pattern() {
+        return pattern;
+    }
+
+    /**
+     * Moves on to the next stage's pattern, rechecking every card once.
+     * Returns how many cards already match it; as after markNumber(), they
+     * are in newWinners() and cards one number short of it in newNear().
+     * Their wins date from now, not from when their marks were drawn.
+     */
+    int setPattern(WinPattern next) {
+        pattern = next;
+        int winners = 0;
+        int near = 0;
+        for (int card = 0; card < size; card++) {
+            int marked = markedMask(card);
+            if (next.matches(marked)) {
+                status[card] = WON;
+                wonAt[card] = (byte) drawn;
+                if (winners == newWinners.length) newWinners = Arrays.copyOf(newWinners, winners * 2);
+                newWinners[winners++] = card;
+            } else if (next.oneShort(marked)) {
+                status[card] = NEAR;
+                if (near == newNear.length) newNear = Arrays.copyOf(newNear, near * 2);
+                newNear[near++] = card;
+            } else {
+                status[card] = 0;
+            }
+        }
+        newNearCount = near;
+        return winners;
+    }
+
+    int[] newWinners() {
+        return newWinners;
+    }
+
+    int[] newNear() {
+        return newNear;
+    }
+
+    /** How many cards newNear() holds after the last markNumber(). */
+    int newNearCount() {
+        return newNearCount;
+    }
+
+    /** Whether the card matches the current pattern. */
+    boolean hasBingo(int card) {
+        return status[card] == WON;
+    }
+
+    /** How many numbers had been marked when a card that hasBingo() completed the pattern. */
+    int wonAt(int card) {
+        return wonAt[card];
+    }
+
+    /** The card's 25 mark bits, in BingoCard's (row * 5 + col) layout. */
+    int markedMask(int card) {
+        long bit = (long) card * CELLS;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = marks[word] >>> shift;
+        if (shift > 64 - CELLS) value |= marks[word + 1] << (64 - shift);
+        return (int) value & CELL_MASK;
+    }
+
+    int[] cardNumbers(int card) {
+        int[] flat = new int[CELLS];
+        for (int cell = 0; cell < CELLS; cell++) flat[cell] = numbers.get(card * CELLS + cell);
+        return flat;
+    }
+
+    // --- Same shape as BingoCard's getters, built on demand ---
+    int[][] getCardNumbers(int card) {
+        int[][] grid = new int[5][5];
+        for (int cell = 0; cell < CELLS; cell++) grid[cell / 5][cell % 5] = numbers.get(card * CELLS + cell);
+        return grid;
+    }
+
+    boolean[][] getMarkedStatus(int card) {
+        int mask = markedMask(card);
+        boolean[][] grid = new boolean[5][5];
+        for (int cell = 0; cell < CELLS; cell++) grid[cell / 5][cell % 5] = (mask & (1 << cell)) != 0;
+        return grid;
+    }
+
+    String toProtocol(int card) {
+        return BingoCard.toProtocol(cardNumbers(card));
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heartbeats and timeouts for client connections, so a dead or half-open
+ * socket gives back its seat, thread and buffers instead of waiting forever:
+ *
+ *   --handshake-timeout=MS  closes a connection that has not sent its name
+ *                           (or RESUME:/SPECTATE) this long after connecting (30000)
+ *   --heartbeat=MS          sends PING to a client quiet for this long (15000)
+ *   --idle-timeout=MS       closes a client quiet for this long (45000)
+ *
+ * 0 turns any of them off. Every line a client sends counts as hearing from
+ * it, and clients answer PING with PONG, so only a client that has stopped
+ * reading or whose peer is gone (a PING written into a half-open connection
+ * is never answered) reaches the idle timeout.
+ *
+ * The idle timeout only applies once a client has shown it speaks the
+ * heartbeat, by answering a PING or negotiating a PROTO: option. A legacy
+ * text client sends nothing but its name, ready and BINGO, so it would look
+ * idle for most of a game; it is still sent PINGs and still held to the
+ * handshake timeout, but never closed for being quiet.
+ *
+ * Every connection has at most one timer, on a shared TimingWheel. Reads
+ * only record the time; when the timer fires it compares the deadlines with
+ * the last time the client was heard from and re-arms for the next one, so
+ * a chatty client costs no timer operations at all.
+ */
+final class ConnectionManager {
+    private static final long TICK_MS = 100;
+    // 512 ticks of 100 ms: one turn of the wheel covers the default timeouts
+    private static final int SLOTS = 512;
+
+    static long handshakeTimeoutMs = 30_000;
+    static long heartbeatMs = 15_000;
+    static long idleTimeoutMs = 45_000;
+
+    private static final TimingWheel wheel = new TimingWheel(BingoServer.scheduler, TICK_MS, SLOTS);
+
+    private ConnectionManager() {
+    }
+
+    /** Starts timing a newly accepted connection. */
+    static void watch(BingoServer.Player player) {
+        check(player);
+    }
+
+    /** Connection timers armed, e.g. for metrics. */
+    static int timers() {
+        return wheel.pending();
+    }
+
+    private static void check(BingoServer.Player player) {
+        if (player.isClosed()) return;
+        long now = System.nanoTime();
+        long handshakeDeadline = player.connectedAt + nanos(handshakeTimeoutMs);
+        if (!player.entered && handshakeTimeoutMs > 0 && now >= handshakeDeadline) {
+            timedOut(player, BingoMetrics.handshakeTimeouts, "did not finish the handshake");
+            return;
+        }
+        long heard = player.lastHeard;
+        boolean idles = idleTimeoutMs > 0 && player.answersPings;
+        if (idles && now - heard >= nanos(idleTimeoutMs)) {
+            timedOut(player, BingoMetrics.idleTimeouts, "stopped answering");
+            return;
+        }
+        // Quiet since the later of its last line and our last PING
+        long quietSince = Math.max(heard, player.pingedAt);
+        if (heartbeatMs > 0 && now - quietSince >= nanos(heartbeatMs)) {
+            // Nothing is sent before the handshake; the handshake timeout covers it
+            if (player.entered) {
+                player.send(BingoProtocol.PING);
+                BingoMetrics.increment(BingoMetrics.pingsSent);
+            }
+            player.pingedAt = quietSince = now;
+        }
+
+        long next = Long.MAX_VALUE;
+        if (!player.entered && handshakeTimeoutMs > 0) next = handshakeDeadline;
+        if (idles) next = Math.min(next, heard + nanos(idleTimeoutMs));
+        if (heartbeatMs > 0) next = Math.min(next, quietSince + nanos(heartbeatMs));
+        if (next == Long.MAX_VALUE) return;
+        player.watch = wheel.schedule(() -> check(player), TimeUnit.NANOSECONDS.toMillis(next - now));
+    }
+
+    private static void timedOut(BingoServer.Player player, LongAdder counter, String reason) {
+        BingoMetrics.increment(counter);
+        BingoLog.info((player.getName() != null ? player.getName() : "A connection") + " " + reason + ", closing it.");
+        player.abort();
+        BingoServer.playerLeft(player);
+    }
+
+    private static long nanos(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.SplittableRandom;
+
+/**
+ * A game's draw order, shuffled up front from a seed so every draw is O(1)
+ * and a game can be replayed or audited from its seed alone. Alongside the
+ * order it keeps a 75-bit bitmap of drawn numbers and each number's draw
+ * position, so "has n been drawn?" and "when?" are constant-time lookups.
+ *
+ * One thread draws; any thread may query. Queries read position() first,
+ * whose volatile write publishes the bitmap updated before it.
+ */
+final class DrawSequence {
+    static final int NUMBERS = 75;
+
+    private final long seed;
+    private final int[] order = new int[NUMBERS];
+    // drawIndex[n] is the 1-based draw on which n comes out
+    private final int[] drawIndex = new int[NUMBERS + 1];
+    private long drawnLow;  // numbers 1..64 as bits 0..63
+    private long drawnHigh; // numbers 65..75 as bits 0..10
+    private volatile int position = 0;
+
+    DrawSequence(long seed) {
+        this.seed = seed;
+        for (int i = 0; i < NUMBERS; i++) order[i] = i + 1;
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = NUMBERS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int i = 0; i < NUMBERS; i++) drawIndex[order[i]] = i + 1;
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    /** Numbers drawn so far. */
+    int position() {
+        return position;
+    }
+
+    boolean hasNext() {
+        return position < NUMBERS;
+    }
+
+    /** Draws the next number; only the single drawing thread may call this. */
+    int next() {
+        int number = order[position];
+        if (number <= 64) {
+            drawnLow |= 1L << (number - 1);
+        } else {
+            drawnHigh |= 1L << (number - 65);
+        }
+        position = position + 1;
+        return number;
+    }
+
+    /** The number drawn at a 0-based position, which must be below position(). */
+    int numberAt(int index) {
+        if (index >= position) throw new IllegalArgumentException("Not drawn yet: " + index);
+        return order[index];
+    }
+
+    boolean isDrawn(int number) {
+        return drawIndex[number] <= position;
+    }
+
+    /** The 1-based draw on which number came out, or 0 if it has not been drawn yet. */
+    int drawIndexOf(int number) {
+        return isDrawn(number) ? drawIndex[number] : 0;
+    }
+
+    // --- Bitmap snapshot: read position() first for a consistent view ---
+    long drawnLow() {
+        return drawnLow;
+    }
+
+    long drawnHigh() {
+        return drawnHigh;
+    }
+}
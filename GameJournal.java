@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of game events, enabled with
+ * --journal=FILE. Rooms append ROOM, JOIN, READY, START, DRAW, CLAIM,
+ * WINNER and END records; on restart the server replays the file and
+ * restores every game that was still drawing, so a crash loses no running
+ * game and every disputed win can be audited with
+ * {@code java GameJournal FILE [room]}.
+ *
+ * Callers only encode a record and put it on a bounded queue. One daemon
+ * thread writes whatever has queued up with a single FileChannel write and
+ * then fsyncs the whole batch (group commit); --journal-sync=MS fsyncs at
+ * most every MS ms instead, and -1 leaves flushing to the OS. A DRAW lost
+ * in the unsynced tail is harmless: the draw order comes from the room's
+ * seed, so the restored room simply draws that number again.
+ *
+ * Each record is length, CRC32 and body (type, room id, fields). Reading
+ * stops at the first torn or corrupt record and the file is truncated there
+ * before new records are appended.
+ */
+final class GameJournal {
+    static final byte ROOM = 1, JOIN = 2, READY = 3, START = 4, DRAW = 5, CLAIM = 6, WINNER = 7, END = 8;
+    private static final String[] NAMES = {"?", "ROOM", "JOIN", "READY", "START", "DRAW", "CLAIM", "WINNER", "END"};
+    private static final int MAGIC = 0x424A4E4C; // "BJNL"
+    // Version 2 added the card count to JOIN, version 3 the stage to WINNER
+    private static final int VERSION = 3;
+    private static final int HEADER = 8;
+    private static final int QUEUE = 16_384;
+    private static final int WRITE_BUFFER = 256 * 1024;
+    // Longest record body; reading takes a longer length for a torn or corrupt record
+    private static final int MAX_RECORD = 64 * 1024;
+
+    // The journal in use, or null when journaling is off
+    private static volatile GameJournal active;
+
+    private final FileChannel channel;
+    private final long syncMillis;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER);
+    private final AtomicLong appended = new AtomicLong();
+    private volatile long durable = 0;
+    private volatile boolean failed = false;
+    // Writer thread only
+    private long written = 0;
+    private volatile long syncs = 0;
+    private long lastSync = System.nanoTime();
+
+    private GameJournal(FileChannel channel, long syncMillis) {
+        this.channel = channel;
+        this.syncMillis = syncMillis;
+    }
+
+    /**
+     * Opens the journal for appending after the given number of valid bytes
+     * (from read(), or 0 for a new file) and routes every event to it.
+     */
+    static GameJournal open(Path path, long validBytes, long syncMillis) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (validBytes < HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            validBytes = HEADER;
+        }
+        channel.truncate(validBytes); // drop a torn tail left by a crash
+        channel.position(validBytes);
+        GameJournal journal = new GameJournal(channel, syncMillis);
+        Thread writer = new Thread(journal::writeLoop, "bingo-journal");
+        writer.setDaemon(true);
+        writer.start();
+        active = journal;
+        return journal;
+    }
+
+    static boolean enabled() {
+        return active != null;
+    }
+
+    /** Stops routing events here, waits until everything appended is on disk and closes the file. */
+    void close() throws IOException {
+        if (active == this) active = null;
+        sync();
+        channel.close();
+    }
+
+    // --- Events; each is a no-op while journaling is off ---
+
+    static void room(int room, long seed) {
+        if (active != null) active.append(body(ROOM, room, 8).putLong(seed));
+    }
+
+    static void join(int room, int seat, String name, String token, int cards) {
+        if (active == null) return;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        active.append(body(JOIN, room, 10 + nameBytes.length + tokenBytes.length).putInt(seat)
+                .putShort((short) nameBytes.length).put(nameBytes)
+                .putShort((short) tokenBytes.length).put(tokenBytes)
+                .putShort((short) cards));
+    }
+
+    static void ready(int room, int seat) {
+        if (active != null) active.append(body(READY, room, 4).putInt(seat));
+    }
+
+    static void start(int room) {
+        if (active != null) active.append(body(START, room, 0));
+    }
+
+    static void draw(int room, int number) {
+        if (active != null) active.append(body(DRAW, room, 1).put((byte) number));
+    }
+
+    static void claim(int room, int seat, boolean valid) {
+        if (active != null) active.append(body(CLAIM, room, 5).putInt(seat).put((byte) (valid ? 1 : 0)));
+    }
+
+    /** A stage's winner; only the last stage's ends the game. */
+    static void winner(int room, int seat, int stage, boolean last) {
+        if (active != null) {
+            active.append(body(WINNER, room, 6).putInt(seat).put((byte) stage).put((byte) (last ? 1 : 0)));
+        }
+    }
+
+    static void end(int room) {
+        if (active != null) active.append(body(END, room, 0));
+    }
+
+    /** Whether a WINNER record ends its game: any before version 3, else the last stage's. */
+    private static boolean endsGame(ByteBuffer winner) {
+        winner.getInt(); // seat
+        if (!winner.hasRemaining()) return true;
+        winner.get(); // the stage won, always the one being played
+        return winner.get() != 0;
+    }
+
+    /** A record with room for its fields after the length, CRC, type and room id. */
+    private static ByteBuffer body(byte type, int room, int fieldBytes) {
+        // Written, it would read back as a torn tail and truncate every later record
+        if (5 + fieldBytes > MAX_RECORD) {
+            throw new IllegalArgumentException(NAMES[type] + " record of " + (5 + fieldBytes) + " bytes is too long");
+        }
+        return ByteBuffer.allocate(13 + fieldBytes).position(8).put(type).putInt(room);
+    }
+
+    private void append(ByteBuffer record) {
+        if (failed) return;
+        byte[] bytes = record.array();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 8, bytes.length - 8);
+        record.putInt(0, bytes.length - 8).putInt(4, (int) crc.getValue());
+        appended.incrementAndGet();
+        try {
+            // Blocks only when the disk falls a whole queue behind
+            queue.put(bytes);
+        } catch (InterruptedException e) {
+            appended.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Waits until every record appended so far has been written and, unless syncing is off, fsynced. */
+    void sync() {
+        long target = appended.get();
+        while (durable < target && !failed) LockSupport.parkNanos(100_000);
+    }
+
+    long syncCount() {
+        return syncs;
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        boolean dirty = false;
+        try {
+            while (true) {
+                byte[] first = dirty && syncMillis > 0
+                        ? queue.poll(syncMillis, TimeUnit.MILLISECONDS) : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (byte[] record : batch) {
+                        if (buffer.remaining() < record.length) flushBuffer();
+                        if (record.length > buffer.capacity()) {
+                            writeFully(ByteBuffer.wrap(record));
+                        } else {
+                            buffer.put(record);
+                        }
+                    }
+                    flushBuffer();
+                    written += batch.size();
+                    batch.clear();
+                    dirty = true;
+                }
+                if (syncMillis < 0) {
+                    durable = written;
+                    dirty = false;
+                } else if (dirty && (syncMillis == 0 || first == null
+                        || System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(syncMillis))) {
+                    channel.force(false);
+                    syncs++;
+                    lastSync = System.nanoTime();
+                    durable = written;
+                    dirty = false;
+                }
+            }
+        } catch (IOException e) {
+            failed = true;
+            queue.clear();
+            BingoLog.error("Journal write failed, journaling stopped: " + e);
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    // --- Recovery ---
+
+    /** What the journal says about one room whose game had not finished. */
+    static final class RoomLog {
+        final int id;
+        final long seed;
+        final List<String> names = new ArrayList<>();
+        final List<String> tokens = new ArrayList<>();
+        final List<Integer> cardCounts = new ArrayList<>();
+        final BitSet ready = new BitSet();
+        // Valid claims for the stage being played
+        final BitSet validClaims = new BitSet();
+        int stage = 0;
+        final byte[] drawn = new byte[DrawSequence.NUMBERS];
+        int drawCount = 0;
+        boolean started = false;
+
+        RoomLog(int id, long seed) {
+            this.id = id;
+            this.seed = seed;
+        }
+    }
+
+    /** Result of reading a journal: its unfinished rooms and where new records go. */
+    static final class Recovery {
+        final Map<Integer, RoomLog> rooms = new LinkedHashMap<>();
+        long events = 0;
+        long gamesFinished = 0;
+        int maxRoomId = 0;
+        long validBytes = 0;
+        boolean tornTail = false;
+    }
+
+    /** Reads a whole journal; a missing file is an empty journal. */
+    static Recovery read(Path path) throws IOException {
+        Recovery recovery = new Recovery();
+        if (!path.toFile().exists()) return recovery;
+        scan(path, (type, room, fields) -> apply(recovery, type, room, fields), recovery);
+        return recovery;
+    }
+
+    private static void apply(Recovery recovery, byte type, int room, ByteBuffer fields) {
+        recovery.events++;
+        if (type == ROOM) {
+            recovery.rooms.put(room, new RoomLog(room, fields.getLong()));
+            recovery.maxRoomId = Math.max(recovery.maxRoomId, room);
+            return;
+        }
+        RoomLog log = recovery.rooms.get(room);
+        if (log == null) return; // finished, or its ROOM record predates a truncated journal
+        switch (type) {
+            case JOIN:
+                fields.getInt();
+                log.names.add(string(fields));
+                log.tokens.add(string(fields));
+                log.cardCounts.add(fields.hasRemaining() ? (int) fields.getShort() : 1);
+                break;
+            case READY:
+                log.ready.set(fields.getInt());
+                break;
+            case START:
+                log.started = true;
+                break;
+            case DRAW:
+                if (log.drawCount < log.drawn.length) log.drawn[log.drawCount++] = fields.get();
+                break;
+            case CLAIM:
+                int seat = fields.getInt();
+                if (fields.get() != 0) log.validClaims.set(seat);
+                break;
+            case WINNER:
+            case END:
+                if (type == WINNER && !endsGame(fields)) {
+                    log.stage++;
+                    log.validClaims.clear();
+                    break;
+                }
+                // Announced or closed: nothing left to restore
+                if (recovery.rooms.remove(room) != null && log.started) recovery.gamesFinished++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    interface Visitor {
+        void record(byte type, int room, ByteBuffer fields);
+    }
+
+    /** Feeds every intact record to the visitor and notes where the intact part ends. */
+    private static void scan(Path path, Visitor visitor, Recovery recovery) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = ByteBuffer.allocateDirect(1 << 20);
+            long fileSize = channel.size();
+            if (fileSize < HEADER) return;
+            channel.read(in);
+            in.flip();
+            if (in.getInt() != MAGIC || in.getInt() > VERSION) {
+                throw new IOException(path + " is not a Bingo journal");
+            }
+            long offset = HEADER;
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[256];
+            while (true) {
+                if (in.remaining() < 8 || in.remaining() < 8 + in.getInt(in.position())) {
+                    in.compact();
+                    if (channel.read(in) <= 0 && in.position() == 0) {
+                        in.flip();
+                        break;
+                    }
+                    in.flip();
+                    if (in.remaining() < 8 || in.remaining() < 8 + in.getInt(in.position())) break;
+                }
+                int length = in.getInt(in.position());
+                if (length < 5 || length > MAX_RECORD) break;
+                in.position(in.position() + 4);
+                int expected = in.getInt();
+                if (body.length < length) body = new byte[length];
+                in.get(body, 0, length);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != expected) break;
+                ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+                visitor.record(record.get(), record.getInt(), record);
+                offset += 8 + length;
+            }
+            recovery.validBytes = offset;
+            recovery.tornTail = offset < fileSize;
+        }
+    }
+
+    private static String string(ByteBuffer fields) {
+        byte[] bytes = new byte[fields.getShort() & 0xFFFF];
+        fields.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prints a journal as text, optionally only one room, for auditing:
+     *
+     *   java GameJournal FILE [room]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java GameJournal FILE [room]");
+            return;
+        }
+        Path path = Path.of(args[0]);
+        int only = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+        Recovery recovery = new Recovery();
+        scan(path, (type, room, fields) -> {
+            recovery.events++;
+            if (only >= 0 && room != only) return;
+            StringBuilder line = new StringBuilder("room ").append(room).append(' ')
+                    .append(type > 0 && type < NAMES.length ? NAMES[type] : "?" + type);
+            switch (type) {
+                case ROOM:
+                    line.append(" seed=").append(fields.getLong());
+                    break;
+                case JOIN:
+                    line.append(" seat=").append(fields.getInt()).append(" name=").append(string(fields));
+                    string(fields); // the session token stays out of audit output
+                    if (fields.hasRemaining()) line.append(" cards=").append(fields.getShort());
+                    break;
+                case READY:
+                    line.append(" seat=").append(fields.getInt());
+                    break;
+                case WINNER:
+                    line.append(" seat=").append(fields.getInt());
+                    if (fields.hasRemaining()) {
+                        line.append(" stage=").append(fields.get() + 1).append(fields.get() != 0 ? " last" : "");
+                    }
+                    break;
+                case DRAW:
+                    line.append(' ').append(fields.get());
+                    break;
+                case CLAIM:
+                    line.append(" seat=").append(fields.getInt()).append(fields.get() != 0 ? " valid" : " rejected");
+                    break;
+                default:
+                    break;
+            }
+            System.out.println(line);
+        }, recovery);
+        System.out.println(recovery.events + " events, " + recovery.validBytes + " bytes"
+                + (recovery.tornTail ? ", torn tail after that" : ""));
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory latency recorder in the style of HdrHistogram: values below
+ * 256 are counted exactly, larger ones in log-linear buckets keeping their
+ * top 8 bits, so any reported percentile is within 1% of the true value.
+ * Recording is lock-free and safe from any number of threads; the whole
+ * histogram is about 58 KB regardless of how many values it holds.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 8;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF = SUB_COUNT / 2;
+    // Covers values up to 2^62, e.g. 146,000 years of microseconds
+    private static final int BUCKETS = SUB_COUNT + (63 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records one value; negative values (e.g. from clock steps) count as 0. */
+    void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /** Largest value that falls in the same bucket as index. */
+    private static long highestValueAt(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = index / HALF - 1;
+        long sub = index % HALF + HALF;
+        return (sub << shift) + (1L << shift) - 1;
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long sum() {
+        return sum.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /** The value at or below which the given percentage (0-100] of recorded values fall. */
+    long valueAtPercentile(double percentile) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueAt(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** One-line summary, e.g. "n=7500 mean=412 p50=380 ... max=2100 us". */
+    String summary(String unit) {
+        return String.format("n=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d %s",
+                count(), mean(), valueAtPercentile(50), valueAtPercentile(90),
+                valueAtPercentile(99), valueAtPercentile(99.9), max(), unit);
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A shard's control connection to BingoGateway, for
+ * {@code java BingoServer --port=P --shard-of=HOST:PORT}. The gateway owns
+ * every game: it tells the shard which room is open, when it starts, each
+ * number drawn, each stage's winner and which of its players share the
+ * prize, and the shard reports its lobby counts and valid claims back. Messages are text lines; see BingoGateway.
+ *
+ * Lobby counts are coalesced: a burst of joins and readies sends only the
+ * latest counts of each room, once per scheduler turn.
+ */
+final class ShardLink {
+    // Spreads shard indexes across the card seed, so shards deal different cards for one game
+    private static final long CARD_SEED_STEP = 0x9E3779B97F4A7C15L;
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+    private final int index;
+    private final Map<Integer, long[]> pendingCounts = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private ShardLink(Socket socket, int clientPort) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                StandardCharsets.UTF_8)));
+        send("HELLO " + clientPort);
+        String reply = in.readLine();
+        if (reply == null || !reply.startsWith("SHARD ")) throw new IOException("Gateway refused shard: " + reply);
+        index = Integer.parseInt(reply.substring("SHARD ".length()));
+    }
+
+    /**
+     * Registers with the gateway and returns once the gateway has assigned
+     * this shard its index. Nothing is read after that until start().
+     */
+    static ShardLink connect(String hostPort, int clientPort) throws IOException {
+        int colon = hostPort.lastIndexOf(':');
+        Socket socket = new Socket(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+        ShardLink link = new ShardLink(socket, clientPort);
+        BingoLog.info("Shard " + link.index + " of gateway " + hostPort);
+        return link;
+    }
+
+    /** Starts applying the gateway's messages; rooms open as OPEN messages arrive. */
+    void start() {
+        Thread reader = new Thread(this::readLoop, "bingo-shard-link");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** Session tokens carry their shard, so the gateway can route a RESUME back to it. */
+    String sessionToken(String random) {
+        return index + "-" + random;
+    }
+
+    /** The latest seated and ready counts of a room in its lobby; sent on the next scheduler turn. */
+    void lobby(int room, int seated, int ready) {
+        pendingCounts.put(room, new long[] {seated, ready});
+        if (flushScheduled.compareAndSet(false, true)) BingoServer.scheduler.execute(this::flushLobby);
+    }
+
+    private void flushLobby() {
+        // Cleared first, so counts put while flushing schedule another flush
+        flushScheduled.set(false);
+        synchronized (out) {
+            for (Integer room : pendingCounts.keySet()) {
+                long[] counts = pendingCounts.remove(room);
+                if (counts != null) out.println("LOBBY " + room + " " + counts[0] + " " + counts[1]);
+            }
+            out.flush();
+        }
+    }
+
+    /** A claim this shard found valid for the given stage, for a card completed on the given draw. */
+    void claim(int room, int stage, int wonAt, int seat, String name) {
+        send("CLAIM " + room + " " + stage + " " + wonAt + " " + seat + " " + name);
+    }
+
+    private void send(String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    /** Applies the gateway's messages in order; a shard without its gateway cannot play, so it exits. */
+    private void readLoop() {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    handle(line);
+                } catch (RuntimeException e) {
+                    BingoLog.error("Bad gateway message '" + line + "': " + e);
+                }
+            }
+        } catch (IOException e) {
+            BingoLog.error("Gateway connection failed: " + e.getMessage());
+        }
+        BingoLog.error("Lost the gateway; shutting down.");
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // exiting anyway
+        }
+        System.exit(1);
+    }
+
+    private void handle(String line) {
+        String[] parts = line.split(" ", 4);
+        int id = Integer.parseInt(parts[1]);
+        if (parts[0].equals("OPEN")) {
+            long seed = Long.parseLong(parts[2]);
+            WinPattern[] stages = parts.length > 3 ? WinPattern.parseStages(parts[3]) : BingoServer.stages;
+            BingoServer.openShardRoom(id, seed, seed + index * CARD_SEED_STEP, stages);
+            return;
+        }
+        BingoRoom room = BingoServer.room(id);
+        // A shard that registered mid-game has no room for it, and nobody to tell
+        if (room == null) return;
+        switch (parts[0]) {
+            case "STARTING":
+                room.broadcast(BingoProtocol.STARTING_IN + parts[2]);
+                break;
+            case "CANCELLED":
+                room.broadcast(BingoProtocol.START_CANCELLED);
+                break;
+            case "START":
+                room.startReplicated();
+                break;
+            case "NUMBER":
+                room.drawReplicated(Integer.parseInt(parts[2]), Long.parseLong(parts[3]));
+                break;
+            case "PRIZE":
+                String[] prize = line.split(" ");
+                room.prizeReplicated(Integer.parseInt(prize[2]), BingoProtocol.prize(Integer.parseInt(prize[3]),
+                        Integer.parseInt(prize[4]), Integer.parseInt(prize[5])));
+                break;
+            case "STAGE":
+                // The winner's name is the rest of the line
+                room.stageWonReplicated(Integer.parseInt(parts[2]), parts[3]);
+                break;
+            case "WINNER":
+                // The name is the rest of the line and may contain spaces
+                room.finishReplicated(line.split(" ", 3)[2]);
+                break;
+            case "END":
+                room.finishReplicated(null);
+                break;
+            default:
+                BingoLog.warn("Unknown gateway message " + parts[0]);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * When a room's game starts, chosen with --start:
+ *
+ *   all            as soon as every seated player is ready (the default)
+ *   min:N:SECONDS  once N players are ready, after a SECONDS countdown that
+ *                  lets others join; at once if everyone seated is ready
+ *   at:HH:MM       at the next HH:MM server time, with whoever has joined
+ *
+ * A shard behind BingoGateway uses EXTERNAL: its rooms never start
+ * themselves, the gateway applies the policy to every shard's counts.
+ *
+ * A policy only answers questions about player counts; BingoRoom applies
+ * the answers with a single compare-and-set, so it is immutable and shared.
+ */
+final class StartPolicy {
+    enum Kind { ALL, MIN, AT, EXTERNAL }
+
+    static final StartPolicy ALL = new StartPolicy(Kind.ALL, 1, 0, null);
+    static final StartPolicy EXTERNAL = new StartPolicy(Kind.EXTERNAL, 1, 0, null);
+
+    final Kind kind;
+    final int minPlayers;
+    final long countdownMillis;
+    final LocalTime at;
+
+    private StartPolicy(Kind kind, int minPlayers, long countdownMillis, LocalTime at) {
+        this.kind = kind;
+        this.minPlayers = minPlayers;
+        this.countdownMillis = countdownMillis;
+        this.at = at;
+    }
+
+    static StartPolicy min(int players, long countdownMillis) {
+        return new StartPolicy(Kind.MIN, Math.max(1, players), Math.max(0, countdownMillis), null);
+    }
+
+    static StartPolicy at(LocalTime time) {
+        return new StartPolicy(Kind.AT, 1, 0, time);
+    }
+
+    /** Parses a --start value; throws IllegalArgumentException if it is not one of the forms above. */
+    static StartPolicy parse(String spec) {
+        String[] parts = spec.split(":", 2);
+        try {
+            switch (parts[0]) {
+                case "all":
+                    if (parts.length == 1) return ALL;
+                    break;
+                case "min":
+                    String[] args = parts.length > 1 ? parts[1].split(":") : new String[0];
+                    if (args.length == 2) {
+                        return min(Integer.parseInt(args[0]), (long) (Double.parseDouble(args[1]) * 1000));
+                    }
+                    break;
+                case "at":
+                    if (parts.length > 1) return at(LocalTime.parse(parts[1]));
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("--start must be all, min:N:SECONDS or at:HH:MM, not " + spec);
+    }
+
+    /** Whether a room with these counts starts immediately, without waiting for a timer. */
+    boolean startsNow(int seated, int ready) {
+        switch (kind) {
+            case ALL:
+                return seated > 0 && ready == seated;
+            case MIN:
+                return ready >= minPlayers && ready == seated;
+            default:
+                return false;
+        }
+    }
+
+    /** Whether a countdown should be running for these counts. */
+    boolean countsDown(int seated, int ready) {
+        return kind == Kind.MIN && ready >= minPlayers;
+    }
+
+    /** Whether a start timer runs from the first join, regardless of readiness. */
+    boolean scheduled() {
+        return kind == Kind.AT;
+    }
+
+    /** Whether the room starts when its timer fires, given the counts at that moment. */
+    boolean startsOnTimer(int seated, int ready) {
+        return kind == Kind.MIN ? ready >= minPlayers : seated > 0;
+    }
+
+    /** Milliseconds from now until the timer should fire; for at: the next HH:MM, today or tomorrow. */
+    long timerMillis() {
+        if (kind != Kind.AT) return countdownMillis;
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(at);
+        if (!next.isAfter(now)) next = next.plusDays(1);
+        return Duration.between(now, next).toMillis();
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case MIN:
+                return "min:" + minPlayers + ":" + countdownMillis / 1000.0;
+            case AT:
+                return "at:" + at;
+            case EXTERNAL:
+                return "external";
+            default:
+                return "all";
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import java.lang.reflect.Method;
+
+/**
+ * Starts tasks on virtual threads when the running JVM has them (Java 21+),
+ * falling back to ordinary platform threads on older runtimes. Looked up
+ * reflectively so the sources still compile with older javac versions.
+ */
+final class Threads {
+    private static final Method START_VIRTUAL = lookupStartVirtual();
+
+    private Threads() {
+    }
+
+    static boolean virtualSupported() {
+        return START_VIRTUAL != null;
+    }
+
+    static Thread start(Runnable task, boolean virtual) {
+        if (virtual && START_VIRTUAL != null) {
+            try {
+                return (Thread) START_VIRTUAL.invoke(null, task);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not start virtual thread", e);
+            }
+        }
+        Thread thread = new Thread(task);
+        thread.start();
+        return thread;
+    }
+
+    private static Method lookupStartVirtual() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
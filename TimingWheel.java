@@ -0,0 +1,128 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel: timers are hashed by deadline into a ring of
+ * slots, and one task on the scheduler advances a slot per tick and fires
+ * what is due there. Arming and cancelling cost O(1) however many timers
+ * are armed, so thousands of connections share one scheduled task instead
+ * of a scheduler entry each. A deadline more than a turn of the wheel away
+ * waits out the extra turns in its slot.
+ *
+ * Timers are armed and cancelled from any thread through queues; the slots
+ * belong to the tick task, which runs one tick at a time, so they need no
+ * locks. Timers fire up to a tick late, never early, on the scheduler
+ * thread, and should be short (e.g. queue a PING).
+ */
+final class TimingWheel {
+    private final long tickNanos;
+    private final long startNanos = System.nanoTime();
+    private final Timeout[] slots;
+    private final int mask;
+    private final Queue<Timeout> armed = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    // Next tick to fire; tick task only
+    private long tick;
+    private volatile int pending;
+
+    /** One armed timer; cancel() drops it and releases its task. */
+    static final class Timeout {
+        private final TimingWheel wheel;
+        private final long deadline;
+        private volatile Runnable task;
+        // Slot list links, tick task only
+        private Timeout prev, next;
+        private int slot = -1;
+
+        private Timeout(TimingWheel wheel, long deadline, Runnable task) {
+            this.wheel = wheel;
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        void cancel() {
+            if (task == null) return;
+            task = null;
+            wheel.cancelled.add(this);
+        }
+    }
+
+    /** A wheel of slotCount slots (rounded up to a power of two), ticking every tickMillis on scheduler. */
+    TimingWheel(ScheduledExecutorService scheduler, long tickMillis, int slotCount) {
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        slots = new Timeout[Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1];
+        mask = slots.length - 1;
+        scheduler.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs task once, delayMillis from now. */
+    Timeout schedule(Runnable task, long delayMillis) {
+        long due = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        // Rounded up, so a timer never fires early
+        Timeout timeout = new Timeout(this, (due + tickNanos - 1) / tickNanos, task);
+        armed.add(timeout);
+        return timeout;
+    }
+
+    /** Timers armed and not yet fired or cancelled, as of the last tick. */
+    int pending() {
+        return pending;
+    }
+
+    /** Fires every tick up to now; ticks delayed by a busy scheduler are caught up at once. */
+    private void advance() {
+        long now = (System.nanoTime() - startNanos) / tickNanos;
+        Timeout timeout;
+        while ((timeout = armed.poll()) != null) {
+            if (timeout.task != null) link(timeout, Math.max(timeout.deadline, tick));
+        }
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.slot >= 0) unlink(timeout);
+        }
+        for (; tick <= now; tick++) fire((int) (tick & mask));
+    }
+
+    private void fire(int slot) {
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.deadline <= tick) {
+                unlink(timeout);
+                Runnable task = timeout.task;
+                timeout.task = null;
+                if (task != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // An exception would cancel the tick task and every timer with it
+                        BingoLog.error("Timer failed: " + e);
+                    }
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void link(Timeout timeout, long deadline) {
+        int slot = (int) (deadline & mask);
+        timeout.slot = slot;
+        timeout.next = slots[slot];
+        if (timeout.next != null) timeout.next.prev = timeout;
+        slots[slot] = timeout;
+        pending++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+        timeout.slot = -1;
+        pending--;
+    }
+}
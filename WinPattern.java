@@ -0,0 +1,180 @@
+import java.util.*;
+
+/**
+ * A winning shape on a 5x5 card, compiled to the 25-bit cell masks that
+ * complete it, in BingoCard's (row * 5 + col) layout. A card wins when its
+ * marked cells cover any one of the masks, so checking a card is a few
+ * ANDs however elaborate the shape: "two lines" is every pair of lines as
+ * one mask each, a postage stamp is the four corner 2x2 blocks.
+ *
+ * Masks are also indexed by cell. A card that had not won before a draw can
+ * only win, or come one cell short, through a mask containing the cell just
+ * marked, so CardStore tests only those (completedBy, oneShortThrough).
+ *
+ * A game plays one or more stages, chosen with --patterns: a comma list
+ * played in order, each stage a pattern name or several joined with '|'
+ * where any of them wins, e.g. "line,two-lines,full-house" or
+ * "x|four-corners". Patterns are immutable and shared.
+ */
+final class WinPattern {
+    private static final int SIZE = 5;
+    private static final int CELLS = SIZE * SIZE;
+    private static final Map<String, WinPattern> NAMED = new LinkedHashMap<>();
+
+    static final WinPattern LINE = define("line", BingoCard.WIN_MASKS);
+    static final WinPattern TWO_LINES = define("two-lines", unionsOf(BingoCard.WIN_MASKS, 2));
+    static final WinPattern FOUR_CORNERS = define("four-corners", cells(0, 0, 0, 4, 4, 0, 4, 4));
+    static final WinPattern X = define("x", BingoCard.WIN_MASKS[2 * SIZE] | BingoCard.WIN_MASKS[2 * SIZE + 1]);
+    static final WinPattern POSTAGE_STAMP = define("postage-stamp",
+            cells(0, 0, 0, 1, 1, 0, 1, 1), cells(0, 3, 0, 4, 1, 3, 1, 4),
+            cells(3, 0, 3, 1, 4, 0, 4, 1), cells(3, 3, 3, 4, 4, 3, 4, 4));
+    static final WinPattern PLUS = define("plus", row(2) | column(2));
+    static final WinPattern T = define("t", row(0) | column(2));
+    static final WinPattern L = define("l", column(0) | row(4));
+    static final WinPattern DIAMOND = define("diamond", cells(0, 2, 1, 1, 1, 3, 2, 0, 2, 4, 3, 1, 3, 3, 4, 2));
+    static final WinPattern INNER_SQUARE = define("inner-square",
+            cells(1, 1, 1, 2, 1, 3, 2, 1, 2, 3, 3, 1, 3, 2, 3, 3));
+    static final WinPattern FRAME = define("frame", row(0) | row(4) | column(0) | column(4));
+    static final WinPattern FULL_HOUSE = define("full-house", (1 << CELLS) - 1);
+
+    static {
+        NAMED.put("blackout", FULL_HOUSE);
+    }
+
+    final String name;
+    private final int[] masks;
+    // masksByCell[cell] holds the masks that include that cell
+    private final int[][] masksByCell;
+
+    private WinPattern(String name, int[] masks) {
+        this.name = name;
+        this.masks = Arrays.stream(masks).distinct().toArray();
+        masksByCell = new int[CELLS][];
+        for (int cell = 0; cell < CELLS; cell++) {
+            int bit = 1 << cell;
+            masksByCell[cell] = Arrays.stream(this.masks).filter(mask -> (mask & bit) != 0).toArray();
+        }
+    }
+
+    private static WinPattern define(String name, int... masks) {
+        WinPattern pattern = new WinPattern(name, masks);
+        NAMED.put(name, pattern);
+        return pattern;
+    }
+
+    private static int cells(int... rowCols) {
+        int mask = 0;
+        for (int i = 0; i < rowCols.length; i += 2) mask |= 1 << (rowCols[i] * SIZE + rowCols[i + 1]);
+        return mask;
+    }
+
+    private static int row(int row) {
+        return BingoCard.WIN_MASKS[row];
+    }
+
+    private static int column(int column) {
+        return BingoCard.WIN_MASKS[SIZE + column];
+    }
+
+    /** Every union of k distinct masks, e.g. all 66 pairs of the 12 lines. */
+    private static int[] unionsOf(int[] masks, int k) {
+        List<Integer> unions = new ArrayList<>();
+        addUnions(masks, k, 0, 0, unions);
+        return unions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void addUnions(int[] masks, int k, int from, int union, List<Integer> unions) {
+        if (k == 0) {
+            unions.add(union);
+            return;
+        }
+        for (int i = from; i < masks.length; i++) addUnions(masks, k - 1, i + 1, union | masks[i], unions);
+    }
+
+    /** The named patterns, in catalogue order; aliases are left out. */
+    static Collection<WinPattern> all() {
+        Set<WinPattern> distinct = new LinkedHashSet<>(NAMED.values());
+        return Collections.unmodifiableSet(distinct);
+    }
+
+    /**
+     * A pattern by name, or several names joined with '|' for a pattern won
+     * by any of them. Throws IllegalArgumentException for an unknown name.
+     */
+    static WinPattern parse(String spec) {
+        WinPattern known = NAMED.get(spec);
+        if (known != null) return known;
+        String[] names = spec.split("\\|");
+        if (names.length == 1) {
+            throw new IllegalArgumentException("Unknown pattern '" + spec + "'; known: "
+                    + String.join(", ", NAMED.keySet()));
+        }
+        List<Integer> masks = new ArrayList<>();
+        for (String name : names) {
+            for (int mask : parse(name).masks) masks.add(mask);
+        }
+        return new WinPattern(spec, masks.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /** The stages of a --patterns value, e.g. "line,two-lines,full-house". */
+    static WinPattern[] parseStages(String spec) {
+        String[] names = spec.split(",");
+        WinPattern[] stages = new WinPattern[names.length];
+        for (int i = 0; i < names.length; i++) stages[i] = parse(names[i].trim());
+        return stages;
+    }
+
+    /** The --patterns value for these stages; parseStages() gives them back. */
+    static String toSpec(WinPattern[] stages) {
+        StringJoiner spec = new StringJoiner(",");
+        for (WinPattern stage : stages) spec.add(stage.name);
+        return spec.toString();
+    }
+
+    int maskCount() {
+        return masks.length;
+    }
+
+    int mask(int i) {
+        return masks[i];
+    }
+
+    /** True if the marked cells cover any of the masks. */
+    boolean matches(int marked) {
+        for (int mask : masks) {
+            if ((marked & mask) == mask) return true;
+        }
+        return false;
+    }
+
+    /** Like matches(), testing only the masks through one cell: enough right after marking it. */
+    boolean completedBy(int marked, int cell) {
+        for (int mask : masksByCell[cell]) {
+            if ((marked & mask) == mask) return true;
+        }
+        return false;
+    }
+
+    /** True if marking one more cell would complete a mask. */
+    boolean oneShort(int marked) {
+        for (int mask : masks) {
+            int missing = mask & ~marked;
+            if (missing != 0 && (missing & missing - 1) == 0) return true;
+        }
+        return false;
+    }
+
+    /** Like oneShort(), testing only the masks through one cell: enough right after marking it. */
+    boolean oneShortThrough(int marked, int cell) {
+        for (int mask : masksByCell[cell]) {
+            int missing = mask & ~marked;
+            if (missing != 0 && (missing & missing - 1) == 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}